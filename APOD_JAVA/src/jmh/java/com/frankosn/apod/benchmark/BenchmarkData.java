@@ -0,0 +1,75 @@
+package com.frankosn.apod.benchmark;
+
+import com.frankosn.apod.loadtest.MockApodServer;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic APOD responses and scratch directories shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+    private static final Gson gson = new Gson();
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Returns an APOD response entry for a date, with image URLs below the given base.
+     */
+    static Map<String, String> apod(LocalDate date, String imageBaseUrl) {
+        return MockApodServer.entry(date, imageBaseUrl);
+    }
+
+    static String apodJson(LocalDate date, String imageBaseUrl) {
+        return gson.toJson(apod(date, imageBaseUrl));
+    }
+
+    /**
+     * Returns a range response covering the given number of consecutive days.
+     */
+    static String apodArrayJson(LocalDate start, int days, String imageBaseUrl) {
+        List<Map<String, String>> entries = new ArrayList<>(days);
+        for (int i = 0; i < days; i++) {
+            entries.add(apod(start.plusDays(i), imageBaseUrl));
+        }
+        return gson.toJson(entries);
+    }
+
+    /**
+     * Deletes a scratch directory and everything below it.
+     */
+    static void deleteRecursively(Path root) {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
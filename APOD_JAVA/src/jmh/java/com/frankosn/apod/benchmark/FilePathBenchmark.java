@@ -0,0 +1,46 @@
+package com.frankosn.apod.benchmark;
+
+import com.frankosn.apod.util.FileManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File name derivation done for every downloaded date.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FilePathBenchmark {
+
+    public String imageUrl = "https://apod.nasa.gov/apod/image/2401/NGC1232_Gemini_2048.jpg";
+    public String urlWithoutName = "https://www.youtube.com/embed/";
+    public String date = "2024-01-15";
+    public String imagePath = "./images/NGC1232_Gemini_2048.jpg";
+
+    @Benchmark
+    public String extractFilename() {
+        return FileManager.extractFilename(imageUrl, date);
+    }
+
+    @Benchmark
+    public String extractFilenameFallback() {
+        return FileManager.extractFilename(urlWithoutName, date);
+    }
+
+    @Benchmark
+    public String getMetadataPath() {
+        return FileManager.getMetadataPath(imagePath);
+    }
+}
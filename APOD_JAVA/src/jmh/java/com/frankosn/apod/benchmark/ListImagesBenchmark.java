@@ -0,0 +1,60 @@
+package com.frankosn.apod.benchmark;
+
+import com.frankosn.apod.util.FileManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FileManager#listImages} over synthetic archives. Every tenth entry is a
+ * metadata sidecar, which the listing has to filter out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ListImagesBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int fileCount;
+
+    private Path directory;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("apod-list-bench");
+        LocalDate start = LocalDate.of(1995, 6, 16);
+        for (int i = 0; i < fileCount; i++) {
+            String name = start.plusDays(i) + (i % 10 == 0 ? ".json" : ".jpg");
+            Files.createFile(directory.resolve(name));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public List<String> listImages() throws IOException {
+        return FileManager.listImages(directory.toString());
+    }
+}
@@ -0,0 +1,65 @@
+package com.frankosn.apod.benchmark;
+
+import com.frankosn.apod.model.ApodData;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Type;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gson parsing of single-date and range responses, as done by ApodService.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParsingBenchmark {
+
+    private static final Type APOD_LIST_TYPE = new TypeToken<List<ApodData>>() {}.getType();
+    private static final String IMAGE_BASE_URL = "https://apod.nasa.gov/apod/image";
+
+    private final Gson gson = new Gson();
+    private final String single = BenchmarkData.apodJson(LocalDate.of(2024, 1, 1), IMAGE_BASE_URL);
+
+    /**
+     * Range responses of one week and of a full default chunk.
+     */
+    @State(Scope.Benchmark)
+    public static class RangeResponse {
+        @Param({"7", "100"})
+        public int rangeDays;
+
+        private String json;
+
+        @Setup
+        public void setUp() {
+            json = BenchmarkData.apodArrayJson(LocalDate.of(2024, 1, 1), rangeDays, IMAGE_BASE_URL);
+        }
+    }
+
+    @Benchmark
+    public ApodData parseSingle() {
+        return gson.fromJson(single, ApodData.class);
+    }
+
+    @Benchmark
+    public List<ApodData> parseArray(RangeResponse response) {
+        return gson.fromJson(response.json, APOD_LIST_TYPE);
+    }
+}
@@ -0,0 +1,90 @@
+package com.frankosn.apod.benchmark;
+
+import com.frankosn.apod.loadtest.MockApodServer;
+import com.frankosn.apod.service.DownloadEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End-to-end range download, as run by the CLI's date range option, against a local
+ * mock of the APOD API. Each invocation requests a range it has not seen before so that
+ * metadata and images really go through the network, the pipeline and the disk.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class RangeDownloadBenchmark {
+
+    @Param({"30"})
+    public int days;
+
+    @Param({"65536"})
+    public int imageBytes;
+
+    private MockApodServer server;
+    private Path directory;
+    private DownloadEngine engine;
+    private LocalDate nextStart = LocalDate.of(1995, 6, 16);
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new MockApodServer(MockApodServer.Profile.named("fast").withImageBytes(imageBytes));
+        directory = Files.createTempDirectory("apod-range-bench");
+
+        // Must be in place before ApodService is first used in this JVM
+        System.setProperty("APOD_API_BASE_URL", server.getApiUrl());
+        System.setProperty("APOD_CACHE_DIR", directory.resolve("cache").toString());
+        System.setProperty("APOD_RATE_LIMIT_PER_HOUR", String.valueOf(Integer.MAX_VALUE));
+        System.setProperty("APOD_THUMBNAILS", "false");
+        if (System.getenv("NASA_API_KEY") == null) {
+            System.setProperty("NASA_API_KEY", "BENCHMARK");
+        }
+
+        Path images = Files.createDirectories(directory.resolve("images"));
+        engine = DownloadEngine.fromConfig(images.toString());
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public int downloadRange() throws InterruptedException {
+        List<LocalDate> dates = nextStart.datesUntil(nextStart.plusDays(days)).toList();
+        nextStart = nextStart.plusDays(days);
+
+        AtomicInteger failed = new AtomicInteger();
+        engine.download(dates, result -> {
+            if (!result.isSuccess()) {
+                failed.incrementAndGet();
+            }
+        });
+        if (failed.get() > 0) {
+            throw new IllegalStateException(failed.get() + " of " + days + " dates failed");
+        }
+        return dates.size();
+    }
+}
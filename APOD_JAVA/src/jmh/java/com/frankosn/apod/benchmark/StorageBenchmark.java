@@ -0,0 +1,106 @@
+package com.frankosn.apod.benchmark;
+
+import com.frankosn.apod.model.ApodData;
+import com.frankosn.apod.storage.ApodStorage;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metadata serialization: pretty (sidecar) versus compact (catalog) JSON, and the full
+ * {@link ApodStorage#saveMetadata} write with sidecars off and on.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StorageBenchmark {
+
+    private static final int DISTINCT_DATES = 1000;
+
+    private static final String IMAGE_BASE_URL = "https://apod.nasa.gov/apod/image";
+    private static final Gson pretty = new GsonBuilder().setPrettyPrinting().create();
+    private static final Gson compact = new Gson();
+
+    private final ApodStorage.ApodMetadataFile metadata = toMetadata(apod(LocalDate.of(2024, 1, 1)), "image.jpg");
+
+    /**
+     * Scratch images directory that {@link ApodStorage#saveMetadata} writes into.
+     */
+    @State(Scope.Benchmark)
+    public static class Archive {
+        @Param({"false", "true"})
+        public String sidecars;
+
+        private Path directory;
+        private ApodData[] apods;
+        private int next;
+
+        @Setup
+        public void setUp() throws IOException {
+            System.setProperty("APOD_WRITE_SIDECARS", sidecars);
+            directory = Files.createTempDirectory("apod-storage-bench");
+
+            LocalDate start = LocalDate.of(2020, 1, 1);
+            apods = new ApodData[DISTINCT_DATES];
+            for (int i = 0; i < DISTINCT_DATES; i++) {
+                apods[i] = apod(start.plusDays(i));
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            System.clearProperty("APOD_WRITE_SIDECARS");
+            BenchmarkData.deleteRecursively(directory);
+        }
+    }
+
+    @Benchmark
+    public String serializePretty() {
+        return pretty.toJson(metadata);
+    }
+
+    @Benchmark
+    public String serializeCompact() {
+        return compact.toJson(metadata);
+    }
+
+    /**
+     * Cycles through a fixed set of dates so the catalog settles into its steady state
+     * of appends and periodic compactions.
+     */
+    @Benchmark
+    public void saveMetadata(Archive archive) throws IOException {
+        ApodData apod = archive.apods[archive.next];
+        archive.next = (archive.next + 1) % DISTINCT_DATES;
+        ApodStorage.saveMetadata(apod, archive.directory.toString(), apod.getDate() + ".jpg");
+    }
+
+    private static ApodData apod(LocalDate date) {
+        return compact.fromJson(BenchmarkData.apodJson(date, IMAGE_BASE_URL), ApodData.class);
+    }
+
+    private static ApodStorage.ApodMetadataFile toMetadata(ApodData apod, String imagePath) {
+        return new ApodStorage.ApodMetadataFile(apod.getTitle(), apod.getExplanation(), apod.getDate(),
+                apod.getMediaType(), apod.getUrl(), apod.getHdurl(), imagePath);
+    }
+}
@@ -1,21 +1,84 @@
 package com.frankosn.apod;
 
 import com.frankosn.apod.cli.ApodCli;
+import com.frankosn.apod.cli.BatchCommand;
+import com.frankosn.apod.cli.LoadTestCommand;
+import com.frankosn.apod.cli.MigrateLayoutCommand;
+import com.frankosn.apod.cli.PackCommand;
+import com.frankosn.apod.cli.ServeCommand;
+import com.frankosn.apod.cli.SyncCommand;
+import com.frankosn.apod.cli.VerifyCommand;
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.metrics.MetricsServer;
+import com.frankosn.apod.storage.ThumbnailService;
 
 /**
  * Main entry point for the NASA APOD Downloader application.
- * Java 21 port of the original Python CLI application.
+ * Java 21 port of the original Python CLI application. Without arguments it starts the
+ * interactive menu; "serve" starts the {@link ServeCommand gallery server}, "sync" the
+ * {@link SyncCommand sync daemon}, "migrate-layout" a {@link MigrateLayoutCommand layout
+ * migration}, "pack" the {@link PackCommand packing} of past years, "verify" an
+ * {@link VerifyCommand integrity check} of the archive, "loadtest" and "mock-server" an
+ * offline {@link LoadTestCommand load test}, and other arguments run a non-interactive
+ * {@link BatchCommand}.
  */
 public class ApodApplication {
 
     public static void main(String[] args) {
+        MetricsServer metricsServer = null;
+        int status;
         try {
-            ApodCli cli = new ApodCli();
-            cli.run();
+            if (ConfigLoader.getMetricsPort() > 0) {
+                metricsServer = MetricsServer.start(ConfigLoader.getMetricsPort());
+            }
+            status = run(args);
         } catch (Exception e) {
             System.err.println("❌ Unexpected error: " + e.getMessage());
             e.printStackTrace();
-            System.exit(1);
+            status = 1;
+        } finally {
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
         }
+
+        // Thumbnails queued by downloads would be lost on exit
+        try {
+            ThumbnailService.closeAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.exit(status);
+    }
+
+    /**
+     * Runs the command the arguments ask for, or the interactive menu, and returns the
+     * process exit status.
+     */
+    private static int run(String[] args) throws Exception {
+        if (ServeCommand.isServeInvocation(args)) {
+            return ServeCommand.run(args);
+        }
+        if (MigrateLayoutCommand.isMigrateInvocation(args)) {
+            return MigrateLayoutCommand.run(args);
+        }
+        if (PackCommand.isPackInvocation(args)) {
+            return PackCommand.run(args);
+        }
+        if (VerifyCommand.isVerifyInvocation(args)) {
+            return VerifyCommand.run(args);
+        }
+        if (SyncCommand.isSyncInvocation(args)) {
+            return SyncCommand.run(args);
+        }
+        if (LoadTestCommand.isLoadTestInvocation(args)) {
+            return LoadTestCommand.run(args);
+        }
+        if (BatchCommand.isBatchInvocation(args)) {
+            return BatchCommand.run(args);
+        }
+        ApodCli cli = new ApodCli();
+        cli.run();
+        return BatchCommand.EXIT_OK;
     }
 }
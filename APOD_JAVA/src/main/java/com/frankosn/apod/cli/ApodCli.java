@@ -3,10 +3,16 @@ package com.frankosn.apod.cli;
 import com.frankosn.apod.config.ConfigLoader;
 import com.frankosn.apod.model.ApodData;
 import com.frankosn.apod.service.ApodService;
+import com.frankosn.apod.service.DownloadEngine;
+import com.frankosn.apod.storage.ApodCatalog;
 import com.frankosn.apod.storage.ApodStorage;
+import com.frankosn.apod.storage.BlobStore;
+import com.frankosn.apod.storage.DownloadManifest;
+import com.frankosn.apod.storage.ImageLayout;
+import com.frankosn.apod.storage.SearchIndex;
+import com.frankosn.apod.storage.ThumbnailService;
 import com.frankosn.apod.util.DateUtil;
 import com.frankosn.apod.util.FileManager;
-import com.google.gson.Gson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,6 +22,7 @@ import java.io.InputStreamReader;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Map;
 
 /**
  * CLI interface for the NASA APOD Downloader application.
@@ -23,7 +30,7 @@ import java.util.List;
 public class ApodCli {
 
     private static final Logger logger = LoggerFactory.getLogger(ApodCli.class);
-    private static final Gson gson = new Gson();
+    private static final int SEARCH_RESULTS = 10;
     private static final BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
     private final String imagesDir;
 
@@ -44,7 +51,7 @@ public class ApodCli {
 
         while (true) {
             showMenu();
-            String choice = readInput("Select an option (1-5): ").strip();
+            String choice = readInput("Select an option (1-7): ").strip();
 
             switch (choice) {
                 case "1" -> optionDownloadByDate();
@@ -55,6 +62,8 @@ public class ApodCli {
                     System.out.println("\n👋 Goodbye!");
                     return;
                 }
+                case "6" -> optionGenerateThumbnails();
+                case "7" -> optionSearch();
                 default -> System.out.println("\n❌ Invalid option. Try again.");
             }
         }
@@ -154,26 +163,24 @@ public class ApodCli {
 
             System.out.println("\nTotal: " + images.size() + " image(s)\n");
 
+            Map<String, ApodStorage.ApodMetadataFile> catalog =
+                ApodCatalog.forDirectory(imagesDir).entriesByImagePath();
+            ImageLayout layout = ImageLayout.forDirectory(imagesDir);
+
             int idx = 1;
             for (String filename : images) {
-                String filepath = imagesDir + "/" + filename;
-                double fileSizeKB = FileManager.getFileSizeKB(filepath);
-                String metadataPath = FileManager.getMetadataPath(filepath);
+                double fileSizeKB = layout.size(filename) / 1024.0;
 
                 String title = "No title";
                 String date = "Unknown";
 
-                try {
-                    String metadataJson = new String(java.nio.file.Files.readAllBytes(
-                        java.nio.file.Paths.get(metadataPath)));
-                    ApodStorage.ApodMetadataFile metadata = gson.fromJson(metadataJson,
-                        ApodStorage.ApodMetadataFile.class);
+                ApodStorage.ApodMetadataFile metadata = catalog.get(filename);
+                if (metadata != null) {
                     title = metadata.title != null ? metadata.title : "No title";
                     date = metadata.date != null ? metadata.date : "Unknown";
-                } catch (Exception ignored) {
                 }
 
-                System.out.printf("%d. %s\n", idx, filename);
+                System.out.printf("%d. %s%s\n", idx, filename, layout.isPacked(filename) ? "  (packed)" : "");
                 System.out.printf("   Size: %.1f KB\n", fileSizeKB);
                 System.out.printf("   Date: %s\n", date);
                 System.out.printf("   Title: %s\n\n", title);
@@ -185,6 +192,74 @@ public class ApodCli {
         }
     }
 
+    /**
+     * Option 6: Generate thumbnails for every archived image that lacks an up-to-date one.
+     */
+    private void optionGenerateThumbnails() {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("Generate Thumbnails");
+        System.out.println("=".repeat(50));
+
+        try {
+            List<String> images = FileManager.listImages(imagesDir);
+            if (images.isEmpty()) {
+                System.out.println("No images downloaded yet.");
+                return;
+            }
+
+            System.out.println("Processing " + images.size() + " image(s)...");
+            long started = System.nanoTime();
+            ThumbnailService.BatchResult result = ThumbnailService.forDirectory(imagesDir).generateAll(images);
+            double seconds = (System.nanoTime() - started) / 1_000_000_000.0;
+
+            System.out.printf("\n✅ %d generated, %d up to date, %d failed (%.1f s)\n",
+                result.generated(), result.upToDate(), result.failed(), seconds);
+        } catch (IOException e) {
+            System.err.println("❌ Error generating thumbnails: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Option 7: Search titles and explanations of archived APODs.
+     */
+    private void optionSearch() {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("Search Archive");
+        System.out.println("=".repeat(50));
+        System.out.println("Words are ranked by relevance; use \"quotes\" for exact phrases.");
+
+        String query = readInput("Search: ").strip();
+        if (query.isEmpty()) {
+            System.out.println("❌ Empty query");
+            return;
+        }
+
+        try {
+            SearchIndex index = SearchIndex.forDirectory(imagesDir);
+            long started = System.nanoTime();
+            List<SearchIndex.Hit> hits = index.search(query, SEARCH_RESULTS);
+            double millis = (System.nanoTime() - started) / 1_000_000.0;
+
+            if (hits.isEmpty()) {
+                System.out.printf("\nNo matches among %d APOD(s) (%.2f ms)\n", index.size(), millis);
+                return;
+            }
+
+            System.out.printf("\nTop %d of %d APOD(s) (%.2f ms)\n\n", hits.size(), index.size(), millis);
+            ApodCatalog catalog = ApodCatalog.forDirectory(imagesDir);
+            int idx = 1;
+            for (SearchIndex.Hit hit : hits) {
+                ApodStorage.ApodMetadataFile metadata = catalog.get(hit.date());
+                String title = metadata != null && metadata.title != null ? metadata.title : "No title";
+                System.out.printf("%d. %s  %s  (score %.2f)\n", idx++, hit.date(), title, hit.score());
+            }
+        } catch (IOException e) {
+            System.err.println("❌ Error searching archive: " + e.getMessage());
+        }
+    }
+
     /**
      * Option 4: Download today's APOD.
      */
@@ -212,17 +287,20 @@ public class ApodCli {
             }
 
             String filename = FileManager.extractFilename(imageUrl, date);
-            String filepath = imagesDir + "/" + filename;
-
-            if (FileManager.fileExists(filepath)) {
-                System.out.println("✓ Already downloaded: " + filename);
-            } else {
+            if (ImageLayout.forDirectory(imagesDir).locate(date, filename) == null) {
                 System.out.println("Downloading: " + filename);
-                FileManager.downloadFile(imageUrl, filepath);
-                System.out.println("✓ Downloaded: " + filename);
             }
 
-            ApodStorage.saveMetadata(data, filepath);
+            DownloadEngine.StoredImage stored = DownloadEngine.fromConfig(imagesDir).storeImage(date, imageUrl);
+            filename = stored.filename();
+            String filepath = imagesDir + "/" + filename;
+            System.out.println(stored.downloaded()
+                ? "✓ Downloaded: " + filename
+                : "✓ Already downloaded: " + filename);
+
+            ApodStorage.saveMetadata(data, imagesDir, filename);
+            DownloadManifest.forDirectory(imagesDir).recordStored(date, data.getMediaType(), filename, imageUrl,
+                stored.sha256());
             System.out.println("📁 Saved at: " + filepath);
             System.out.println("📋 Title: " + data.getTitle());
 
@@ -233,43 +311,43 @@ public class ApodCli {
     }
 
     /**
-     * Downloads a range of APODs.
+     * Downloads a range of APODs through the download pipeline. Dates already in the
+     * download manifest are skipped without network access.
      */
     private void downloadRange(LocalDate startDate, LocalDate endDate, long totalDays) {
         int successCount = 0;
 
         System.out.println("Downloading " + totalDays + " APOD(s)...");
 
-        LocalDate current = startDate;
-        while (!current.isAfter(endDate)) {
-            String dateStr = DateUtil.formatDate(current);
-            try {
-                ApodData data = ApodService.fetchApod(dateStr);
-                String imageUrl = ApodService.extractImageUrl(data);
-
-                if (imageUrl != null) {
-                    String filename = FileManager.extractFilename(imageUrl, dateStr);
-                    String filepath = imagesDir + "/" + filename;
-
-                    if (!FileManager.fileExists(filepath)) {
-                        FileManager.downloadFile(imageUrl, filepath);
-                        ApodStorage.saveMetadata(data, filepath);
-                    }
+        List<LocalDate> dates = startDate.datesUntil(endDate.plusDays(1)).toList();
+        try {
+            DownloadEngine engine = DownloadEngine.fromConfig(imagesDir);
+            int archived = dates.size() - engine.pendingDates(dates).size();
+            if (archived > 0) {
+                System.out.println(archived + " date(s) already archived locally");
+            }
 
+            for (DownloadEngine.Result result : engine.download(dates, r -> System.out.println(r.toDisplayLine()))) {
+                if (result.isSuccess()) {
                     successCount++;
-                    System.out.println("  ✓ " + dateStr + ": " + filename);
-                } else {
-                    System.out.println("  ✗ " + dateStr + ": No image found");
                 }
-            } catch (Exception e) {
-                System.out.println("  ✗ " + dateStr + ": " + e.getMessage());
-                logger.debug("Error downloading APOD for date " + dateStr, e);
             }
 
-            current = current.plusDays(1);
+            BlobStore.DedupeStats dedupe = engine.getDedupeStats();
+            if (dedupe != null) {
+                System.out.println("♻️  Dedupe: " + dedupe);
+            }
+        } catch (IOException e) {
+            System.err.println("❌ Error: " + e.getMessage());
+            logger.error("Error downloading APOD range " + startDate + " to " + endDate, e);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("❌ Download interrupted");
         }
 
         System.out.printf("\n✅ Completed: %d/%d successful downloads\n", successCount, totalDays);
+        logger.debug("Cache stats: {}", ApodService.getCacheStats());
     }
 
     /**
@@ -284,6 +362,8 @@ public class ApodCli {
         System.out.println("3. View downloaded images");
         System.out.println("4. Download today's APOD");
         System.out.println("5. Exit");
+        System.out.println("6. Generate thumbnails");
+        System.out.println("7. Search archive");
         System.out.println();
     }
 
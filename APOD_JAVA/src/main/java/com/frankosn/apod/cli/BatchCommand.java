@@ -0,0 +1,281 @@
+package com.frankosn.apod.cli;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.http.BandwidthLimiter;
+import com.frankosn.apod.metrics.Metrics;
+import com.frankosn.apod.service.ApodService;
+import com.frankosn.apod.service.DownloadEngine;
+import com.frankosn.apod.util.DateUtil;
+import com.frankosn.apod.util.FileManager;
+import com.google.gson.Gson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-interactive download command for cron jobs and containers. Takes a date or range
+ * plus tuning flags, never prompts, and reports progress either as readable lines or as
+ * one JSON event per line on stdout.
+ */
+public class BatchCommand {
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILURES = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchCommand.class);
+    private static final Gson gson = new Gson();
+    private static final String USAGE = """
+            Usage: apod-downloader download [options]
+
+              --date YYYY-MM-DD          Download a single date
+              --start YYYY-MM-DD         First date of a range
+              --end YYYY-MM-DD           Last date of a range (default: today)
+              --today                    Download today's APOD
+              --concurrency N            Image download workers (APOD_CONCURRENCY)
+              --metadata-concurrency N   API metadata workers (APOD_METADATA_CONCURRENCY)
+              --rate N                   Maximum API requests per hour (APOD_RATE_LIMIT_PER_HOUR)
+              --bandwidth KBPS           Image bandwidth limit in KB/s, 0 for none (APOD_BANDWIDTH_KBPS)
+              --bandwidth-schedule SPEC  Time-of-day limits, e.g. 20:00-08:00=unlimited (APOD_BANDWIDTH_SCHEDULE)
+              --images-dir DIR           Images directory
+              --format text|ndjson       Progress output (default: text)
+              --metrics-file FILE        Write Prometheus metrics to FILE when done
+
+            Exit status: 0 if every date succeeded, 1 if any failed, 2 on invalid arguments.""";
+
+    private LocalDate start;
+    private LocalDate end;
+    private int concurrency = ConfigLoader.getDownloadConcurrency();
+    private int metadataConcurrency = ConfigLoader.getMetadataConcurrency();
+    private Integer rate;
+    private Long bandwidthKbps;
+    private BandwidthLimiter.Schedule bandwidthSchedule;
+    private String imagesDir = ConfigLoader.getImagesDirectory();
+    private boolean ndjson;
+    private Path metricsFile;
+
+    /**
+     * Whether the command line asks for batch mode rather than the interactive menu.
+     */
+    public static boolean isBatchInvocation(String[] args) {
+        return args.length > 0;
+    }
+
+    /**
+     * Parses the arguments, runs the download and returns the process exit status.
+     */
+    public static int run(String[] args) {
+        if ("help".equals(args[0]) || "--help".equals(args[0])) {
+            System.out.println(USAGE);
+            return EXIT_OK;
+        }
+
+        BatchCommand command = new BatchCommand();
+        try {
+            command.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        return command.execute();
+    }
+
+    private void parse(String[] args) {
+        int i = "download".equals(args[0]) ? 1 : 0;
+
+        LocalDate date = null;
+        boolean today = false;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--date" -> date = parseDate(arg, value(args, ++i, arg));
+                case "--start" -> start = parseDate(arg, value(args, ++i, arg));
+                case "--end" -> end = parseDate(arg, value(args, ++i, arg));
+                case "--today" -> today = true;
+                case "--concurrency" -> concurrency = parsePositive(arg, value(args, ++i, arg));
+                case "--metadata-concurrency" -> metadataConcurrency = parsePositive(arg, value(args, ++i, arg));
+                case "--rate" -> rate = parsePositive(arg, value(args, ++i, arg));
+                case "--bandwidth" -> bandwidthKbps = parseKbps(arg, value(args, ++i, arg));
+                case "--bandwidth-schedule" -> bandwidthSchedule = BandwidthLimiter.Schedule.parse(value(args, ++i, arg));
+                case "--images-dir" -> imagesDir = value(args, ++i, arg);
+                case "--metrics-file" -> metricsFile = Paths.get(value(args, ++i, arg));
+                case "--format" -> ndjson = switch (value(args, ++i, arg)) {
+                    case "ndjson" -> true;
+                    case "text" -> false;
+                    default -> throw new IllegalArgumentException("--format must be text or ndjson");
+                };
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        int selections = (date != null ? 1 : 0) + (start != null ? 1 : 0) + (today ? 1 : 0);
+        if (selections != 1) {
+            throw new IllegalArgumentException("Specify exactly one of --date, --start or --today");
+        }
+        if (date != null || today) {
+            start = date != null ? date : LocalDate.now();
+            if (end != null) {
+                throw new IllegalArgumentException("--end is only valid with --start");
+            }
+            end = start;
+        } else if (end == null) {
+            end = LocalDate.now();
+        }
+        if (start.isAfter(end)) {
+            throw new IllegalArgumentException("Start date must be before end date");
+        }
+    }
+
+    private int execute() {
+        List<LocalDate> dates = start.datesUntil(end.plusDays(1)).toList();
+        Map<DownloadEngine.Status, Integer> counts = new EnumMap<>(DownloadEngine.Status.class);
+        for (DownloadEngine.Status status : DownloadEngine.Status.values()) {
+            counts.put(status, 0);
+        }
+        long[] bytes = new long[1];
+        long started = System.nanoTime();
+
+        try {
+            FileManager.ensureImagesDir(imagesDir);
+            if (rate != null) {
+                ApodService.getRateLimiter().setRequestsPerHour(rate);
+            }
+            if (bandwidthKbps != null) {
+                BandwidthLimiter.shared().setBytesPerSecond(bandwidthKbps * 1024);
+            }
+            if (bandwidthSchedule != null) {
+                BandwidthLimiter.shared().setSchedule(bandwidthSchedule);
+            }
+            DownloadEngine engine = new DownloadEngine(imagesDir, metadataConcurrency, concurrency,
+                    ConfigLoader.getWriterConcurrency(), ConfigLoader.getPipelineQueueSize());
+            int pending = engine.pendingDates(dates).size();
+
+            Map<String, Object> startEvent = event("start");
+            startEvent.put("start", DateUtil.formatDate(start));
+            startEvent.put("end", DateUtil.formatDate(end));
+            startEvent.put("dates", dates.size());
+            startEvent.put("pending", pending);
+            startEvent.put("concurrency", concurrency);
+            startEvent.put("rate_per_hour", ApodService.getRateLimiter().getLimit());
+            startEvent.put("bandwidth_kbps", BandwidthLimiter.shared().getEffectiveBytesPerSecond() / 1024);
+            emit(startEvent, "Downloading " + dates.size() + " APOD(s), " + (dates.size() - pending)
+                    + " already archived locally");
+
+            engine.download(dates, result -> {
+                counts.merge(result.status(), 1, Integer::sum);
+                bytes[0] += result.bytes();
+
+                Map<String, Object> resultEvent = event("result");
+                resultEvent.put("date", result.date());
+                resultEvent.put("status", result.status().name());
+                resultEvent.put("file", result.filename());
+                resultEvent.put("bytes", result.bytes());
+                resultEvent.put("latency_ms", result.millis());
+                resultEvent.put("message", result.message());
+                emit(resultEvent, result.toDisplayLine());
+            });
+        } catch (IOException e) {
+            System.err.println("❌ Error: " + e.getMessage());
+            logger.error("Batch download failed", e);
+            return EXIT_FAILURES;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("❌ Download interrupted");
+            return EXIT_FAILURES;
+        }
+
+        double seconds = Math.max((System.nanoTime() - started) / 1_000_000_000.0, 0.001);
+        int failed = counts.get(DownloadEngine.Status.FAILED);
+        Map<String, Object> summary = event("summary");
+        summary.put("dates", dates.size());
+        summary.put("downloaded", counts.get(DownloadEngine.Status.DOWNLOADED));
+        summary.put("skipped", counts.get(DownloadEngine.Status.SKIPPED));
+        summary.put("no_image", counts.get(DownloadEngine.Status.NO_IMAGE));
+        summary.put("failed", failed);
+        summary.put("bytes", bytes[0]);
+        summary.put("elapsed_ms", Math.round(seconds * 1000));
+        summary.put("dates_per_sec", round(dates.size() / seconds));
+        summary.put("images_per_sec", round(counts.get(DownloadEngine.Status.DOWNLOADED) / seconds));
+        summary.put("mb_per_sec", round(bytes[0] / (1024.0 * 1024.0) / seconds));
+        emit(summary, String.format("\n✅ Completed: %d downloaded, %d skipped, %d without image, %d failed"
+                        + " in %.1f s (%.1f dates/s, %.2f MB/s)",
+                counts.get(DownloadEngine.Status.DOWNLOADED), counts.get(DownloadEngine.Status.SKIPPED),
+                counts.get(DownloadEngine.Status.NO_IMAGE), failed, seconds,
+                dates.size() / seconds, bytes[0] / (1024.0 * 1024.0) / seconds));
+
+        if (metricsFile != null) {
+            try {
+                Metrics.writePrometheusText(metricsFile);
+            } catch (IOException e) {
+                System.err.println("❌ Could not write metrics: " + e.getMessage());
+            }
+        }
+        return failed > 0 ? EXIT_FAILURES : EXIT_OK;
+    }
+
+    private static Map<String, Object> event(String type) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("event", type);
+        event.put("time", System.currentTimeMillis());
+        return event;
+    }
+
+    /**
+     * Prints an event as a JSON line or its readable form. Listener callbacks arrive in
+     * order from a single thread, so lines never interleave.
+     */
+    private void emit(Map<String, Object> event, String text) {
+        System.out.println(ndjson ? gson.toJson(event) : text);
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " requires a value");
+        }
+        return args[index];
+    }
+
+    private static LocalDate parseDate(String option, String value) {
+        if (!DateUtil.isValidDate(value)) {
+            throw new IllegalArgumentException(option + " must be a date in YYYY-MM-DD format");
+        }
+        return DateUtil.parseDate(value);
+    }
+
+    private static int parsePositive(String option, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " must be a positive integer");
+    }
+
+    private static long parseKbps(String option, String value) {
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " must be a number of KB/s, 0 for unlimited");
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
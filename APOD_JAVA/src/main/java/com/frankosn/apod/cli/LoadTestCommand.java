@@ -0,0 +1,221 @@
+package com.frankosn.apod.cli;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.loadtest.LoadTest;
+import com.frankosn.apod.loadtest.MockApodServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Offline load testing. "loadtest" starts a {@link MockApodServer} in-process, points the
+ * API client at it and runs range downloads and concurrent lookups against it, reporting
+ * throughput and per-date latency. "mock-server" only starts the server, for pointing
+ * another run at it through APOD_API_BASE_URL.
+ */
+public class LoadTestCommand {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadTestCommand.class);
+    private static final String USAGE = """
+            Usage: apod-downloader loadtest [options]
+                   apod-downloader mock-server [--port N] [profile options]
+
+              --days N                 Days downloaded per run (default: 100)
+              --concurrency N[,N...]   Image workers of each pipeline run (default: APOD_CONCURRENCY)
+              --metadata-concurrency N API metadata workers (APOD_METADATA_CONCURRENCY)
+              --no-lookups             Skip the concurrent single-date lookup run
+              --port N                 Port of the mock server (mock-server only, default: 8767)
+
+            Profile options:
+              --profile NAME           fast, slow, flaky or throttled (default: fast)
+              --latency MS             Delay added to every response
+              --bandwidth KBPS         Per-response bandwidth cap in KB/s (0: unlimited)
+              --error-rate F           Share of requests answered with 503 (0-1)
+              --throttle-rate F        Share of requests answered with 429 (0-1)
+              --rate-limit N           API requests per hour announced in X-RateLimit-* headers
+                                       and enforced with 429 (0: none)
+              --image-kb N             Size of every served image in KB (at least the plain JPEG, about 20 KB)
+
+            Reports dates per second and p50/p99 per-date latency for each run.""";
+
+    private final boolean serveOnly;
+    private MockApodServer.Profile profile = MockApodServer.Profile.named("fast");
+    private int days = 100;
+    private final List<Integer> concurrencies = new ArrayList<>();
+    private int metadataConcurrency = ConfigLoader.getMetadataConcurrency();
+    private boolean lookups = true;
+    private int port = 8767;
+
+    private LoadTestCommand(boolean serveOnly) {
+        this.serveOnly = serveOnly;
+    }
+
+    /**
+     * Whether the command line asks for a load test or a standalone mock server.
+     */
+    public static boolean isLoadTestInvocation(String[] args) {
+        return args.length > 0 && ("loadtest".equals(args[0]) || "mock-server".equals(args[0]));
+    }
+
+    /**
+     * Parses the arguments and runs the load test, or serves until stopped. Returns the
+     * process exit status.
+     */
+    public static int run(String[] args) throws InterruptedException {
+        if (args.length > 1 && ("help".equals(args[1]) || "--help".equals(args[1]))) {
+            System.out.println(USAGE);
+            return BatchCommand.EXIT_OK;
+        }
+
+        LoadTestCommand command = new LoadTestCommand("mock-server".equals(args[0]));
+        try {
+            command.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.err.println(USAGE);
+            return BatchCommand.EXIT_USAGE;
+        }
+        return command.serveOnly ? command.serve() : command.execute();
+    }
+
+    private void parse(String[] args) {
+        // The profile goes first so that individual options refine it wherever they appear
+        for (int i = 1; i < args.length; i++) {
+            if ("--profile".equals(args[i])) {
+                profile = MockApodServer.Profile.named(value(args, i + 1, args[i]))
+                        .withImageBytes(profile.imageBytes());
+            }
+        }
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--profile" -> i++;
+                case "--latency" -> profile = profile.withLatency(parseLong(arg, value(args, ++i, arg)));
+                case "--bandwidth" -> profile = profile.withBandwidth(parseLong(arg, value(args, ++i, arg)) * 1024);
+                case "--error-rate" -> profile = profile.withErrorRate(parseRate(arg, value(args, ++i, arg)));
+                case "--throttle-rate" -> profile = profile.withThrottleRate(parseRate(arg, value(args, ++i, arg)));
+                case "--rate-limit" -> profile = profile.withRequestsPerHour(
+                        Math.toIntExact(parseLong(arg, value(args, ++i, arg))));
+                case "--image-kb" -> profile = profile.withImageBytes(
+                        Math.toIntExact(parseLong(arg, value(args, ++i, arg)) * 1024));
+                case "--days" -> days = parsePositive(arg, value(args, ++i, arg));
+                case "--concurrency" -> {
+                    for (String n : value(args, ++i, arg).split(",")) {
+                        concurrencies.add(parsePositive(arg, n.trim()));
+                    }
+                }
+                case "--metadata-concurrency" -> metadataConcurrency = parsePositive(arg, value(args, ++i, arg));
+                case "--no-lookups" -> lookups = false;
+                case "--port" -> port = parsePositive(arg, value(args, ++i, arg));
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (concurrencies.isEmpty()) {
+            concurrencies.add(ConfigLoader.getDownloadConcurrency());
+        }
+    }
+
+    private int execute() {
+        Path workDir = null;
+        try (MockApodServer server = new MockApodServer(profile)) {
+            workDir = Files.createTempDirectory("apod-loadtest");
+            LoadTest loadTest = LoadTest.configure(server, workDir);
+            System.out.println("🧪 Mock API at " + server.getApiUrl() + ", profile " + profile);
+
+            int failures = 0;
+            try {
+                for (int concurrency : concurrencies) {
+                    LoadTest.Report report = loadTest.runPipeline(days, metadataConcurrency, concurrency,
+                            ConfigLoader.getWriterConcurrency(), ConfigLoader.getPipelineQueueSize());
+                    System.out.println("  " + report);
+                    failures += report.dates() - report.succeeded();
+                }
+                if (lookups) {
+                    LoadTest.Report report = loadTest.runLookups(days);
+                    System.out.println("  " + report);
+                    failures += report.dates() - report.succeeded();
+                }
+            } finally {
+                loadTest.cleanUp();
+            }
+            return failures > 0 ? BatchCommand.EXIT_FAILURES : BatchCommand.EXIT_OK;
+        } catch (IOException e) {
+            System.err.println("❌ Load test failed: " + e.getMessage());
+            logger.error("Load test failed in {}", workDir, e);
+            return BatchCommand.EXIT_FAILURES;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return BatchCommand.EXIT_FAILURES;
+        }
+    }
+
+    private int serve() throws InterruptedException {
+        MockApodServer server;
+        try {
+            server = new MockApodServer(profile, InetAddress.getLoopbackAddress(), port);
+        } catch (IOException e) {
+            System.err.println("❌ Could not start the mock server on port " + port + ": " + e.getMessage());
+            return BatchCommand.EXIT_FAILURES;
+        }
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("🛑 " + server.getStats());
+            server.close();
+            stopped.countDown();
+        }));
+        System.out.println("🧪 Mock API at " + server.getApiUrl() + ", profile " + profile + " (Ctrl+C to stop)");
+        stopped.await();
+        return BatchCommand.EXIT_OK;
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " requires a value");
+        }
+        return args[index];
+    }
+
+    private static int parsePositive(String option, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " must be a positive number");
+    }
+
+    private static long parseLong(String option, String value) {
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " must be zero or a positive number");
+    }
+
+    private static double parseRate(String option, String value) {
+        try {
+            double parsed = Double.parseDouble(value);
+            if (parsed >= 0 && parsed <= 1) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " must be a share between 0 and 1");
+    }
+}
@@ -0,0 +1,91 @@
+package com.frankosn.apod.cli;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.storage.LayoutMigration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Migrates a flat images directory to the yyyy/MM sharded layout. Safe to interrupt and
+ * run again; refuses to start while another process (a download, sync or server) has the
+ * directory open.
+ */
+public class MigrateLayoutCommand {
+
+    private static final Logger logger = LoggerFactory.getLogger(MigrateLayoutCommand.class);
+    private static final String USAGE = """
+            Usage: apod-downloader migrate-layout [--images-dir DIR] [--quiet]
+
+            Moves images into yyyy/MM subdirectories and switches the directory to the sharded
+            layout for new downloads. Interrupted runs resume where they stopped. Stop any
+            download, sync or server using the directory first.""";
+
+    /**
+     * Whether the command line asks for the layout migration.
+     */
+    public static boolean isMigrateInvocation(String[] args) {
+        return args.length > 0 && "migrate-layout".equals(args[0]);
+    }
+
+    /**
+     * Parses the arguments and migrates. Returns the process exit status.
+     */
+    public static int run(String[] args) {
+        String imagesDir = ConfigLoader.getImagesDirectory();
+        boolean quiet = false;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--images-dir" -> {
+                    if (++i >= args.length) {
+                        System.err.println("❌ --images-dir requires a value");
+                        System.err.println(USAGE);
+                        return BatchCommand.EXIT_USAGE;
+                    }
+                    imagesDir = args[i];
+                }
+                case "--quiet" -> quiet = true;
+                case "help", "--help" -> {
+                    System.out.println(USAGE);
+                    return BatchCommand.EXIT_OK;
+                }
+                default -> {
+                    System.err.println("❌ Unknown option: " + args[i]);
+                    System.err.println(USAGE);
+                    return BatchCommand.EXIT_USAGE;
+                }
+            }
+        }
+
+        if (!Files.isDirectory(Paths.get(imagesDir))) {
+            System.err.println("❌ Images directory not found: " + imagesDir);
+            return BatchCommand.EXIT_FAILURES;
+        }
+
+        LayoutMigration migration;
+        try {
+            migration = new LayoutMigration(imagesDir);
+        } catch (IOException e) {
+            System.err.println("❌ " + e.getMessage());
+            return BatchCommand.EXIT_FAILURES;
+        }
+
+        boolean verbose = !quiet;
+        try {
+            LayoutMigration.Report report = migration.run(line -> {
+                if (verbose) {
+                    System.out.println("  ✓ " + line);
+                }
+            });
+            System.out.println("\n✅ Layout migration: " + report);
+            return BatchCommand.EXIT_OK;
+        } catch (IOException e) {
+            System.err.println("❌ Migration stopped: " + e.getMessage() + " (run again to resume)");
+            logger.error("Layout migration failed", e);
+            return BatchCommand.EXIT_FAILURES;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.frankosn.apod.cli;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.storage.ArchivePacker;
+import com.frankosn.apod.storage.CoverageMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs the images of past years into one pack file per year. Safe to interrupt and run
+ * again; packed images stay visible to every other command.
+ */
+public class PackCommand {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackCommand.class);
+    private static final String USAGE = """
+            Usage: apod-downloader pack [--year YYYY]... [--images-dir DIR] [--quiet]
+
+            Moves the images of each given past year (default: every past year with loose
+            images), with their metadata, into images/.packs/YYYY.pack. Run it again after
+            filling gaps in a packed year to add the new images to its pack.""";
+
+    private final List<Integer> years = new ArrayList<>();
+    private String imagesDir = ConfigLoader.getImagesDirectory();
+    private boolean quiet;
+
+    /**
+     * Whether the command line asks for packing.
+     */
+    public static boolean isPackInvocation(String[] args) {
+        return args.length > 0 && "pack".equals(args[0]);
+    }
+
+    /**
+     * Parses the arguments and packs. Returns the process exit status.
+     */
+    public static int run(String[] args) {
+        if (args.length > 1 && ("help".equals(args[1]) || "--help".equals(args[1]))) {
+            System.out.println(USAGE);
+            return BatchCommand.EXIT_OK;
+        }
+
+        PackCommand command = new PackCommand();
+        try {
+            command.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.err.println(USAGE);
+            return BatchCommand.EXIT_USAGE;
+        }
+
+        if (!Files.isDirectory(Paths.get(command.imagesDir))) {
+            System.err.println("❌ Images directory not found: " + command.imagesDir);
+            return BatchCommand.EXIT_FAILURES;
+        }
+        return command.execute();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--year" -> years.add(parseYear(value(args, ++i, arg)));
+                case "--images-dir" -> imagesDir = value(args, ++i, arg);
+                case "--quiet" -> quiet = true;
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+    }
+
+    private int execute() {
+        try {
+            ArchivePacker packer = new ArchivePacker(imagesDir);
+            List<Integer> targets = years.isEmpty() ? packer.packableYears() : years;
+            if (targets.isEmpty()) {
+                System.out.println("Nothing to pack: no past year has loose images.");
+                return BatchCommand.EXIT_OK;
+            }
+            for (int year : targets) {
+                ArchivePacker.Report report = packer.pack(year, filename -> {
+                    if (!quiet) {
+                        System.out.println("  ✓ " + filename);
+                    }
+                });
+                System.out.println("📦 " + report);
+            }
+            return BatchCommand.EXIT_OK;
+        } catch (IOException e) {
+            System.err.println("❌ Packing stopped: " + e.getMessage() + " (run again to resume)");
+            logger.error("Packing failed", e);
+            return BatchCommand.EXIT_FAILURES;
+        }
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " requires a value");
+        }
+        return args[index];
+    }
+
+    private static int parseYear(String value) {
+        try {
+            int year = Integer.parseInt(value);
+            if (year >= CoverageMap.FIRST_APOD.getYear() && year < LocalDate.now().getYear()) {
+                return year;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("--year must be a past year with APODs");
+    }
+}
@@ -0,0 +1,123 @@
+package com.frankosn.apod.cli;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.server.GalleryServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs the {@link GalleryServer} over the images directory until the process is stopped.
+ */
+public class ServeCommand {
+
+    private static final String USAGE = """
+            Usage: apod-downloader serve [options]
+
+              --port N             Port to listen on (APOD_GALLERY_PORT, default: 8080)
+              --bind ADDRESS       Address to listen on (default: 127.0.0.1; 0.0.0.0 for all interfaces)
+              --images-dir DIR     Images directory
+              --max-age SECONDS    Cache-Control max-age for images (APOD_GALLERY_MAX_AGE)""";
+
+    private int port = ConfigLoader.getGalleryPort();
+    private String bind = "127.0.0.1";
+    private String imagesDir = ConfigLoader.getImagesDirectory();
+    private int maxAge = ConfigLoader.getGalleryMaxAgeSeconds();
+
+    /**
+     * Whether the command line asks for the gallery server.
+     */
+    public static boolean isServeInvocation(String[] args) {
+        return args.length > 0 && "serve".equals(args[0]);
+    }
+
+    /**
+     * Parses the arguments and serves until interrupted. Returns the process exit status
+     * when the server could not start.
+     */
+    public static int run(String[] args) throws InterruptedException {
+        if (args.length > 1 && ("help".equals(args[1]) || "--help".equals(args[1]))) {
+            System.out.println(USAGE);
+            return BatchCommand.EXIT_OK;
+        }
+
+        ServeCommand command = new ServeCommand();
+        try {
+            command.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.err.println(USAGE);
+            return BatchCommand.EXIT_USAGE;
+        }
+
+        if (!Files.isDirectory(Paths.get(command.imagesDir))) {
+            System.err.println("❌ Images directory not found: " + command.imagesDir);
+            return BatchCommand.EXIT_FAILURES;
+        }
+
+        GalleryServer server;
+        try {
+            server = GalleryServer.start(new InetSocketAddress(command.bind, command.port),
+                    command.imagesDir, command.maxAge);
+        } catch (IOException e) {
+            System.err.println("❌ Could not start gallery server: " + e.getMessage());
+            return BatchCommand.EXIT_FAILURES;
+        }
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            stopped.countDown();
+        }));
+        System.out.println("🌌 Gallery at http://" + command.bind + ":" + server.getPort() + "/ (Ctrl+C to stop)");
+        stopped.await();
+        return BatchCommand.EXIT_OK;
+    }
+
+    private void parse(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--port" -> port = parsePort(value(args, ++i, arg));
+                case "--bind" -> bind = value(args, ++i, arg);
+                case "--images-dir" -> imagesDir = value(args, ++i, arg);
+                case "--max-age" -> maxAge = parseMaxAge(value(args, ++i, arg));
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " requires a value");
+        }
+        return args[index];
+    }
+
+    private static int parsePort(String value) {
+        try {
+            int port = Integer.parseInt(value);
+            if (port >= 0 && port <= 65535) {
+                return port;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("--port must be between 0 and 65535");
+    }
+
+    private static int parseMaxAge(String value) {
+        try {
+            int seconds = Integer.parseInt(value);
+            if (seconds >= 0) {
+                return seconds;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("--max-age must be a non-negative number of seconds");
+    }
+}
@@ -0,0 +1,156 @@
+package com.frankosn.apod.cli;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.http.BandwidthLimiter;
+import com.frankosn.apod.service.ApodService;
+import com.frankosn.apod.service.DownloadEngine;
+import com.frankosn.apod.service.SyncDaemon;
+import com.frankosn.apod.util.FileManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs the {@link SyncDaemon} until the process is stopped, or for a single cycle with
+ * --once (e.g. from cron).
+ */
+public class SyncCommand {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncCommand.class);
+    private static final String USAGE = """
+            Usage: apod-downloader sync [options]
+
+              --once                     Run a single cycle and exit
+              --interval MINUTES         Minutes between cycles (APOD_SYNC_INTERVAL_MINUTES, default: 60)
+              --batch N                  Missing days retried per cycle (APOD_SYNC_BATCH_DAYS, default: 500)
+              --rate N                   Maximum API requests per hour (APOD_RATE_LIMIT_PER_HOUR)
+              --bandwidth KBPS           Image bandwidth limit in KB/s, 0 for none (APOD_BANDWIDTH_KBPS)
+              --bandwidth-schedule SPEC  Time-of-day limits, e.g. 20:00-08:00=unlimited (APOD_BANDWIDTH_SCHEDULE)
+              --images-dir DIR           Images directory
+
+            Exit status with --once: 0 if the cycle had no failures, 1 otherwise.""";
+
+    private boolean once;
+    private int intervalMinutes = ConfigLoader.getSyncIntervalMinutes();
+    private int batchDays = ConfigLoader.getSyncBatchDays();
+    private Integer rate;
+    private Long bandwidthKbps;
+    private BandwidthLimiter.Schedule bandwidthSchedule;
+    private String imagesDir = ConfigLoader.getImagesDirectory();
+
+    /**
+     * Whether the command line asks for sync mode.
+     */
+    public static boolean isSyncInvocation(String[] args) {
+        return args.length > 0 && "sync".equals(args[0]);
+    }
+
+    /**
+     * Parses the arguments and syncs until interrupted, or once. Returns the process exit status.
+     */
+    public static int run(String[] args) throws InterruptedException {
+        if (args.length > 1 && ("help".equals(args[1]) || "--help".equals(args[1]))) {
+            System.out.println(USAGE);
+            return BatchCommand.EXIT_OK;
+        }
+
+        SyncCommand command = new SyncCommand();
+        try {
+            command.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.err.println(USAGE);
+            return BatchCommand.EXIT_USAGE;
+        }
+        return command.execute();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--once" -> once = true;
+                case "--interval" -> intervalMinutes = parsePositive(arg, value(args, ++i, arg));
+                case "--batch" -> batchDays = parsePositive(arg, value(args, ++i, arg));
+                case "--rate" -> rate = parsePositive(arg, value(args, ++i, arg));
+                case "--bandwidth" -> bandwidthKbps = parseKbps(arg, value(args, ++i, arg));
+                case "--bandwidth-schedule" -> bandwidthSchedule = BandwidthLimiter.Schedule.parse(value(args, ++i, arg));
+                case "--images-dir" -> imagesDir = value(args, ++i, arg);
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+    }
+
+    private int execute() throws InterruptedException {
+        SyncDaemon daemon;
+        try {
+            FileManager.ensureImagesDir(imagesDir);
+            if (rate != null) {
+                ApodService.getRateLimiter().setRequestsPerHour(rate);
+            }
+            if (bandwidthKbps != null) {
+                BandwidthLimiter.shared().setBytesPerSecond(bandwidthKbps * 1024);
+            }
+            if (bandwidthSchedule != null) {
+                BandwidthLimiter.shared().setSchedule(bandwidthSchedule);
+            }
+            daemon = new SyncDaemon(imagesDir, DownloadEngine.fromConfig(imagesDir),
+                    Duration.ofMinutes(intervalMinutes), batchDays);
+        } catch (IOException e) {
+            System.err.println("❌ Error: " + e.getMessage());
+            logger.error("Could not start sync", e);
+            return BatchCommand.EXIT_FAILURES;
+        }
+
+        System.out.println("🔄 Archive coverage: " + daemon.getCoverage());
+        if (once) {
+            SyncDaemon.CycleReport report = daemon.runCycle();
+            System.out.println("✅ " + report);
+            return report.failed() > 0 ? BatchCommand.EXIT_FAILURES : BatchCommand.EXIT_OK;
+        }
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            daemon.close();
+            stopped.countDown();
+        }));
+        System.out.println("Syncing every " + intervalMinutes + " minute(s) (Ctrl+C to stop)");
+        daemon.start(report -> System.out.println("✅ " + report));
+        stopped.await();
+        return BatchCommand.EXIT_OK;
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " requires a value");
+        }
+        return args[index];
+    }
+
+    private static int parsePositive(String option, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " must be a positive integer");
+    }
+
+    private static long parseKbps(String option, String value) {
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " must be a number of KB/s, 0 for unlimited");
+    }
+}
@@ -0,0 +1,122 @@
+package com.frankosn.apod.cli;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.service.ApodService;
+import com.frankosn.apod.storage.ArchiveVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Verifies the archived images and metadata of a directory against the manifest. Unless
+ * --report-only is given, dates with a bad image are queued for download again and bad
+ * metadata is rewritten.
+ */
+public class VerifyCommand {
+
+    private static final Logger logger = LoggerFactory.getLogger(VerifyCommand.class);
+    private static final String USAGE = """
+            Usage: apod-downloader verify [options]
+
+              --threads N        Parallel workers (default: one per core)
+              --no-decode        Skip decoding images, checking only sizes, checksums and metadata
+              --report-only      Report problems without repairing or queueing anything
+              --images-dir DIR   Images directory
+              --quiet            Print only the summary
+
+            Dates with a bad image are marked failed in the manifest, and their files moved
+            to images/.quarantine, so the next download or sync fetches them again. Bad
+            metadata of a good image is rewritten from the catalog or the API.
+            Exit status: 0 if every date passed, 1 otherwise.""";
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean decode = true;
+    private boolean repair = true;
+    private String imagesDir = ConfigLoader.getImagesDirectory();
+    private boolean quiet;
+
+    /**
+     * Whether the command line asks for verification.
+     */
+    public static boolean isVerifyInvocation(String[] args) {
+        return args.length > 0 && "verify".equals(args[0]);
+    }
+
+    /**
+     * Parses the arguments and verifies. Returns the process exit status.
+     */
+    public static int run(String[] args) throws InterruptedException {
+        if (args.length > 1 && ("help".equals(args[1]) || "--help".equals(args[1]))) {
+            System.out.println(USAGE);
+            return BatchCommand.EXIT_OK;
+        }
+
+        VerifyCommand command = new VerifyCommand();
+        try {
+            command.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.err.println(USAGE);
+            return BatchCommand.EXIT_USAGE;
+        }
+
+        if (!Files.isDirectory(Paths.get(command.imagesDir))) {
+            System.err.println("❌ Images directory not found: " + command.imagesDir);
+            return BatchCommand.EXIT_FAILURES;
+        }
+        return command.execute();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--threads" -> threads = parsePositive(arg, value(args, ++i, arg));
+                case "--no-decode" -> decode = false;
+                case "--report-only" -> repair = false;
+                case "--images-dir" -> imagesDir = value(args, ++i, arg);
+                case "--quiet" -> quiet = true;
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+    }
+
+    private int execute() throws InterruptedException {
+        try {
+            ArchiveVerifier verifier = new ArchiveVerifier(imagesDir, ApodService::fetchApod);
+            ArchiveVerifier.Report report = verifier.verify(threads, decode, repair, finding -> {
+                if (!quiet) {
+                    System.out.println("  ✗ " + finding);
+                }
+            });
+            System.out.println((report.problems() > 0 ? "⚠️ " : "✅ ") + report);
+            return report.problems() > 0 ? BatchCommand.EXIT_FAILURES : BatchCommand.EXIT_OK;
+        } catch (IOException e) {
+            System.err.println("❌ Verification stopped: " + e.getMessage());
+            logger.error("Verification failed", e);
+            return BatchCommand.EXIT_FAILURES;
+        }
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " requires a value");
+        }
+        return args[index];
+    }
+
+    private static int parsePositive(String option, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " must be a positive number");
+    }
+}
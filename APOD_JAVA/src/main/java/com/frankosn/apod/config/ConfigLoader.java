@@ -14,10 +14,7 @@ public class ConfigLoader {
      * Throws an exception if not configured.
      */
     public static String getNasaApiKey() {
-        String apiKey = System.getenv("NASA_API_KEY");
-        if (apiKey == null) {
-            apiKey = dotenv.get("NASA_API_KEY");
-        }
+        String apiKey = getSetting("NASA_API_KEY");
         if (apiKey == null || apiKey.isEmpty()) {
             throw new IllegalStateException(
                 "NASA_API_KEY is not configured. Set it in your .env file or environment variables.");
@@ -37,4 +34,292 @@ public class ConfigLoader {
         // When running from JAR in APOD_JAVA, use relative path
         return "./images";
     }
+
+    /**
+     * Gets the directory of the on-disk HTTP response cache, next to the images directory.
+     */
+    public static String getCacheDirectory() {
+        String cacheDir = getSetting("APOD_CACHE_DIR");
+        if (cacheDir != null && !cacheDir.isEmpty()) {
+            return cacheDir;
+        }
+        String baseDir = System.getenv("APOD_JAVA_HOME");
+        if (baseDir != null && !baseDir.isEmpty()) {
+            return baseDir + "/cache";
+        }
+        return "./cache";
+    }
+
+    /**
+     * Gets the maximum size of the on-disk HTTP response cache, in megabytes.
+     */
+    public static int getHttpCacheSizeMb() {
+        return getIntSetting("APOD_HTTP_CACHE_MB", 50);
+    }
+
+    /**
+     * Gets the number of APOD entries kept in the in-memory cache.
+     */
+    public static int getMemoryCacheEntries() {
+        return getIntSetting("APOD_MEMORY_CACHE_ENTRIES", 2000);
+    }
+
+    /**
+     * Gets the ceiling on NASA API requests per hour. The effective limit is lowered
+     * automatically when the API announces a smaller one.
+     */
+    public static int getApiRequestsPerHour() {
+        return getIntSetting("APOD_RATE_LIMIT_PER_HOUR", 1000);
+    }
+
+    /**
+     * Gets the maximum number of attempts for an API request or image transfer.
+     */
+    public static int getRetryMaxAttempts() {
+        return getIntSetting("APOD_RETRY_MAX_ATTEMPTS", 5);
+    }
+
+    /**
+     * Gets the backoff before the first retry, in milliseconds. Doubles on each attempt.
+     */
+    public static int getRetryInitialBackoffMillis() {
+        return getIntSetting("APOD_RETRY_INITIAL_BACKOFF_MS", 500);
+    }
+
+    /**
+     * Gets the upper bound of the retry backoff, in milliseconds.
+     */
+    public static int getRetryMaxBackoffMillis() {
+        return getIntSetting("APOD_RETRY_MAX_BACKOFF_MS", 30_000);
+    }
+
+    /**
+     * Gets the total time budget for all attempts of one operation, in seconds.
+     */
+    public static int getRetryDeadlineSeconds() {
+        return getIntSetting("APOD_RETRY_DEADLINE_SECONDS", 300);
+    }
+
+    /**
+     * Gets the number of consecutive failures that opens a host's circuit breaker.
+     */
+    public static int getCircuitFailureThreshold() {
+        return getIntSetting("APOD_CIRCUIT_FAILURE_THRESHOLD", 5);
+    }
+
+    /**
+     * Gets how long an open circuit holds back requests before a trial request, in seconds.
+     */
+    public static int getCircuitOpenSeconds() {
+        return getIntSetting("APOD_CIRCUIT_OPEN_SECONDS", 30);
+    }
+
+    /**
+     * Gets the maximum number of days requested per start_date/end_date API call.
+     */
+    public static int getRangeChunkDays() {
+        return getIntSetting("APOD_RANGE_CHUNK_DAYS", 100);
+    }
+
+    /**
+     * Gets the number of concurrent image download workers in range downloads.
+     */
+    public static int getDownloadConcurrency() {
+        return getIntSetting("APOD_CONCURRENCY", 4);
+    }
+
+    /**
+     * Gets the number of concurrent metadata fetchers in the download pipeline.
+     */
+    public static int getMetadataConcurrency() {
+        return getIntSetting("APOD_METADATA_CONCURRENCY", 2);
+    }
+
+    /**
+     * Gets the number of concurrent metadata writers in the download pipeline.
+     */
+    public static int getWriterConcurrency() {
+        return getIntSetting("APOD_WRITER_CONCURRENCY", 1);
+    }
+
+    /**
+     * Gets the capacity of each bounded queue between download pipeline stages.
+     */
+    public static int getPipelineQueueSize() {
+        return getIntSetting("APOD_PIPELINE_QUEUE_SIZE", 32);
+    }
+
+    /**
+     * Gets the number of idle HTTP connections kept alive per host in the shared client pool.
+     */
+    public static int getMaxConnections() {
+        return getIntSetting("APOD_HTTP_MAX_CONNECTIONS", 8);
+    }
+
+    /**
+     * Gets how long idle HTTP connections are kept alive, in seconds.
+     */
+    public static int getKeepAliveSeconds() {
+        return getIntSetting("APOD_HTTP_KEEP_ALIVE_SECONDS", 300);
+    }
+
+    /**
+     * Gets the HTTP connect timeout, in seconds.
+     */
+    public static int getConnectTimeoutSeconds() {
+        return getIntSetting("APOD_HTTP_CONNECT_TIMEOUT_SECONDS", 10);
+    }
+
+    /**
+     * Gets the HTTP read/write timeout between packets, in seconds.
+     */
+    public static int getReadTimeoutSeconds() {
+        return getIntSetting("APOD_HTTP_READ_TIMEOUT_SECONDS", 30);
+    }
+
+    /**
+     * Whether a pretty-printed .json sidecar is written next to each image in addition
+     * to the catalog entry. Disabled by default.
+     */
+    public static boolean isSidecarEnabled() {
+        return getBooleanSetting("APOD_WRITE_SIDECARS", false);
+    }
+
+    /**
+     * Whether images are stored content-addressed (deduplicated by SHA-256) with per-date
+     * hard links, instead of directly under their URL file name. Disabled by default.
+     */
+    public static boolean isContentAddressed() {
+        return getBooleanSetting("APOD_CONTENT_ADDRESSED", false);
+    }
+
+    /**
+     * Whether thumbnails are generated in the background as images are downloaded.
+     */
+    public static boolean isThumbnailOnDownload() {
+        return getBooleanSetting("APOD_THUMBNAILS", true);
+    }
+
+    /**
+     * Gets the maximum width/height of generated thumbnails, in pixels.
+     */
+    public static int getThumbnailSize() {
+        return getIntSetting("APOD_THUMBNAIL_SIZE", 320);
+    }
+
+    /**
+     * Gets the number of threads generating thumbnails.
+     */
+    public static int getThumbnailParallelism() {
+        return getIntSetting("APOD_THUMBNAIL_THREADS", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Gets the local port serving Prometheus metrics at /metrics, or 0 when disabled.
+     */
+    public static int getMetricsPort() {
+        return getIntSetting("APOD_METRICS_PORT", 0);
+    }
+
+    /**
+     * Gets the layout of new images in directories without a layout marker: "flat" or
+     * "sharded" (yyyy/MM subdirectories).
+     */
+    public static String getImageLayout() {
+        String value = getSetting("APOD_LAYOUT");
+        return value == null || value.isBlank() ? "flat" : value.strip();
+    }
+
+    /**
+     * Gets the minutes between sync cycles in the "sync" command.
+     */
+    public static int getSyncIntervalMinutes() {
+        return getIntSetting("APOD_SYNC_INTERVAL_MINUTES", 60);
+    }
+
+    /**
+     * Gets the maximum number of missing days retried per sync cycle.
+     */
+    public static int getSyncBatchDays() {
+        return getIntSetting("APOD_SYNC_BATCH_DAYS", 500);
+    }
+
+    /**
+     * Gets the port of the gallery server started with the "serve" command.
+     */
+    public static int getGalleryPort() {
+        return getIntSetting("APOD_GALLERY_PORT", 8080);
+    }
+
+    /**
+     * Gets how long browsers may cache images served by the gallery, in seconds.
+     */
+    public static int getGalleryMaxAgeSeconds() {
+        return getIntSetting("APOD_GALLERY_MAX_AGE", 86_400);
+    }
+
+    /**
+     * Gets the limit on image download bandwidth in KB/s, shared by all transfers; 0 for none.
+     */
+    public static int getBandwidthKbps() {
+        return getIntSetting("APOD_BANDWIDTH_KBPS", 0);
+    }
+
+    /**
+     * Gets the time-of-day bandwidth limits overriding APOD_BANDWIDTH_KBPS, e.g.
+     * "08:00-20:00=512,20:00-08:00=unlimited", or null for none.
+     */
+    public static String getBandwidthSchedule() {
+        return getSetting("APOD_BANDWIDTH_SCHEDULE");
+    }
+
+    /**
+     * Gets the base URL of the APOD API. Overridden to point benchmarks and load tests
+     * at a local mock server.
+     */
+    public static String getApiBaseUrl() {
+        String value = getSetting("APOD_API_BASE_URL");
+        return value == null || value.isBlank() ? "https://api.nasa.gov/planetary/apod" : value;
+    }
+
+    /**
+     * Reads a setting from a system property or the environment, falling back to the .env file.
+     */
+    private static String getSetting(String name) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            value = System.getenv(name);
+        }
+        if (value == null) {
+            value = dotenv.get(name);
+        }
+        return value;
+    }
+
+    /**
+     * Reads a positive integer setting, returning the default when unset or invalid.
+     */
+    private static int getIntSetting(String name, int defaultValue) {
+        String value = getSetting(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.strip());
+            return parsed > 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a boolean setting ("true"/"false"), returning the default when unset.
+     */
+    private static boolean getBooleanSetting(String name, boolean defaultValue) {
+        String value = getSetting(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.strip());
+    }
 }
@@ -0,0 +1,294 @@
+package com.frankosn.apod.http;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.metrics.Counter;
+import com.frankosn.apod.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process-wide cap on the bytes per second received by image transfers. Every chunk a
+ * transfer reads reserves the next free slot on one shared clock and waits until that slot
+ * has passed, so concurrent transfers are served in turn and each gets an equal share of
+ * the limit, while a lone transfer gets all of it. A short burst allowance lets transfers
+ * catch up after idle moments without exceeding the limit on average.
+ * <p>
+ * The limit is the base rate unless a {@link Schedule} window covering the current time
+ * of day sets another one, e.g. unlimited at night. Both can be changed at runtime, also
+ * over JMX as {@value #OBJECT_NAME}; parked transfers are released when they change.
+ */
+public class BandwidthLimiter {
+
+    public static final long UNLIMITED = 0;
+
+    static final String OBJECT_NAME = "com.frankosn.apod:type=BandwidthLimiter";
+
+    private static final Logger logger = LoggerFactory.getLogger(BandwidthLimiter.class);
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final Counter throttledMillis = Metrics.counter("apod_bandwidth_throttled_milliseconds_total",
+            "Time image transfers spent waiting for bandwidth");
+    private static final BandwidthLimiter shared = fromConfig();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private long baseBytesPerSecond;
+    private Schedule schedule;
+    private long nextFreeNanos = System.nanoTime();
+    private long generation;
+
+    public BandwidthLimiter(long bytesPerSecond, Schedule schedule) {
+        this.baseBytesPerSecond = Math.max(UNLIMITED, bytesPerSecond);
+        this.schedule = schedule;
+    }
+
+    /**
+     * Returns the limiter shared by every image transfer in the process, configured from
+     * APOD_BANDWIDTH_KBPS and APOD_BANDWIDTH_SCHEDULE.
+     */
+    public static BandwidthLimiter shared() {
+        return shared;
+    }
+
+    private static BandwidthLimiter fromConfig() {
+        Schedule schedule = Schedule.NONE;
+        try {
+            schedule = Schedule.parse(ConfigLoader.getBandwidthSchedule());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring APOD_BANDWIDTH_SCHEDULE: {}", e.getMessage());
+        }
+        BandwidthLimiter limiter = new BandwidthLimiter(ConfigLoader.getBandwidthKbps() * 1024L, schedule);
+        Metrics.gauge("apod_bandwidth_limit_bytes", "Current image bandwidth limit in bytes per second (0: unlimited)",
+                limiter::getEffectiveBytesPerSecond);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new BandwidthLimiterMXBean() {
+                @Override
+                public long getLimitKbps() {
+                    return limiter.getBytesPerSecond() / 1024;
+                }
+
+                @Override
+                public void setLimitKbps(long kbps) {
+                    limiter.setBytesPerSecond(kbps * 1024);
+                }
+
+                @Override
+                public String getSchedule() {
+                    return limiter.getSchedule().toString();
+                }
+
+                @Override
+                public void setSchedule(String schedule) {
+                    limiter.setSchedule(Schedule.parse(schedule));
+                }
+
+                @Override
+                public long getEffectiveLimitKbps() {
+                    return limiter.getEffectiveBytesPerSecond() / 1024;
+                }
+            }, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            logger.debug("Could not register bandwidth limiter MBean", e);
+        }
+        return limiter;
+    }
+
+    /**
+     * Accounts for bytes just received, waiting until the limit allows them.
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        lock.lock();
+        try {
+            long rate = effectiveRate();
+            if (rate == UNLIMITED || bytes <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            long start = Math.max(nextFreeNanos, now - BURST_NANOS);
+            nextFreeNanos = start + bytes * TimeUnit.SECONDS.toNanos(1) / rate;
+            long deadline = nextFreeNanos;
+            long reservedIn = generation;
+
+            long remaining = deadline - now;
+            if (remaining > 0) {
+                throttledMillis.add(TimeUnit.NANOSECONDS.toMillis(remaining));
+            }
+            while (remaining > 0 && reservedIn == generation) {
+                remaining = changed.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the base limit in bytes per second, {@link #UNLIMITED} for none.
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        lock.lock();
+        try {
+            baseBytesPerSecond = Math.max(UNLIMITED, bytesPerSecond);
+            reset();
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Image bandwidth limit set to {}", describe(Math.max(UNLIMITED, bytesPerSecond)));
+    }
+
+    public long getBytesPerSecond() {
+        lock.lock();
+        try {
+            return baseBytesPerSecond;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the schedule of time-of-day limits.
+     */
+    public void setSchedule(Schedule schedule) {
+        lock.lock();
+        try {
+            this.schedule = schedule;
+            reset();
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Image bandwidth schedule set to {}", schedule);
+    }
+
+    public Schedule getSchedule() {
+        lock.lock();
+        try {
+            return schedule;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the limit in force now, after applying the schedule.
+     */
+    public long getEffectiveBytesPerSecond() {
+        lock.lock();
+        try {
+            return effectiveRate();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long effectiveRate() {
+        Long scheduled = schedule.limitAt(LocalTime.now());
+        return scheduled != null ? scheduled : baseBytesPerSecond;
+    }
+
+    /**
+     * Drops reservations made at the old limit and releases the transfers waiting on them.
+     */
+    private void reset() {
+        nextFreeNanos = System.nanoTime();
+        generation++;
+        changed.signalAll();
+    }
+
+    private static String describe(long bytesPerSecond) {
+        return bytesPerSecond == UNLIMITED ? "unlimited" : bytesPerSecond / 1024 + " KB/s";
+    }
+
+    /**
+     * Time-of-day windows with their own limit, written as "HH:mm-HH:mm=KBPS" separated by
+     * commas, where KBPS is a number of KB/s or "unlimited". A window ending before it starts
+     * wraps past midnight; the first window covering a time wins.
+     */
+    public static final class Schedule {
+
+        public static final Schedule NONE = new Schedule(List.of());
+
+        private final List<Window> windows;
+
+        private Schedule(List<Window> windows) {
+            this.windows = windows;
+        }
+
+        /**
+         * Parses a schedule; a null or blank value is no schedule.
+         *
+         * @throws IllegalArgumentException if a window is malformed
+         */
+        public static Schedule parse(String value) {
+            if (value == null || value.isBlank()) {
+                return NONE;
+            }
+            List<Window> windows = new ArrayList<>();
+            for (String part : value.split(",")) {
+                String window = part.strip();
+                int dash = window.indexOf('-');
+                int eq = window.indexOf('=');
+                if (dash < 0 || eq < dash) {
+                    throw new IllegalArgumentException("Expected HH:mm-HH:mm=KBPS, got: " + window);
+                }
+                try {
+                    LocalTime start = LocalTime.parse(window.substring(0, dash).strip());
+                    LocalTime end = LocalTime.parse(window.substring(dash + 1, eq).strip());
+                    String limit = window.substring(eq + 1).strip();
+                    long bytesPerSecond = "unlimited".equalsIgnoreCase(limit) ? UNLIMITED : Long.parseLong(limit) * 1024;
+                    if (bytesPerSecond < 0 || start.equals(end)) {
+                        throw new IllegalArgumentException("Invalid window: " + window);
+                    }
+                    windows.add(new Window(start, end, bytesPerSecond));
+                } catch (DateTimeParseException | NumberFormatException e) {
+                    throw new IllegalArgumentException("Expected HH:mm-HH:mm=KBPS, got: " + window, e);
+                }
+            }
+            return new Schedule(List.copyOf(windows));
+        }
+
+        /**
+         * Returns the limit of the window covering a time, or null if none does.
+         */
+        public Long limitAt(LocalTime time) {
+            for (Window window : windows) {
+                if (window.covers(time)) {
+                    return window.bytesPerSecond();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            if (windows.isEmpty()) {
+                return "none";
+            }
+            List<String> parts = new ArrayList<>();
+            for (Window window : windows) {
+                String limit = window.bytesPerSecond() == UNLIMITED ? "unlimited" : String.valueOf(window.bytesPerSecond() / 1024);
+                parts.add(window.start() + "-" + window.end() + "=" + limit);
+            }
+            return String.join(",", parts);
+        }
+
+        private record Window(LocalTime start, LocalTime end, long bytesPerSecond) {
+            boolean covers(LocalTime time) {
+                return start.isBefore(end)
+                        ? !time.isBefore(start) && time.isBefore(end)
+                        : !time.isBefore(start) || time.isBefore(end);
+            }
+        }
+    }
+}
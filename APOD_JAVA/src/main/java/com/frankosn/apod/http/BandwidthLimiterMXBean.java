@@ -0,0 +1,27 @@
+package com.frankosn.apod.http;
+
+/**
+ * JMX control of the shared {@link BandwidthLimiter}, registered as
+ * {@value BandwidthLimiter#OBJECT_NAME}, for changing the limit of a running sync.
+ */
+public interface BandwidthLimiterMXBean {
+
+    /**
+     * Base limit in KB/s applied outside the schedule's windows; 0 for unlimited.
+     */
+    long getLimitKbps();
+
+    void setLimitKbps(long kbps);
+
+    /**
+     * Time-of-day windows as "HH:mm-HH:mm=KBPS,...", or "none".
+     */
+    String getSchedule();
+
+    void setSchedule(String schedule);
+
+    /**
+     * Limit in force right now, in KB/s; 0 for unlimited.
+     */
+    long getEffectiveLimitKbps();
+}
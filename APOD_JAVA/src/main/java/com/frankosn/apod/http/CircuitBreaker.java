@@ -0,0 +1,114 @@
+package com.frankosn.apod.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-host circuit breaker. After a run of consecutive failures the circuit opens and
+ * requests to the host are held back for a cool-down period; then a single trial request
+ * is let through, closing the circuit again on success or re-opening it on failure.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+    private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(String name, int failureThreshold, long openDuration, TimeUnit unit) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = unit.toNanos(openDuration);
+    }
+
+    /**
+     * Returns the shared breaker of a host, creating it with the given settings on first use.
+     */
+    public static CircuitBreaker forHost(String host, int failureThreshold, long openDuration, TimeUnit unit) {
+        return breakers.computeIfAbsent(host, h -> new CircuitBreaker(h, failureThreshold, openDuration, unit));
+    }
+
+    /**
+     * Asks permission to send a request. Returns 0 when allowed, otherwise how many
+     * nanoseconds to wait before asking again.
+     */
+    public synchronized long tryAcquire() {
+        if (state == State.CLOSED) {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+        if (state == State.OPEN) {
+            long remaining = openedAtNanos + openNanos - now;
+            if (remaining > 0) {
+                return remaining;
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+
+        // Half-open: only one trial request at a time
+        if (trialInFlight) {
+            return TimeUnit.MILLISECONDS.toNanos(100);
+        }
+        trialInFlight = true;
+        return 0;
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Circuit for {} closed", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                logger.warn("Circuit for {} opened after {} consecutive failure(s)", name, consecutiveFailures);
+            }
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Gives up permission obtained from {@link #tryAcquire} without an outcome, e.g. when the
+     * request was cancelled, so a half-open circuit lets the next trial through.
+     */
+    public synchronized void release() {
+        trialInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Breaker states.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+}
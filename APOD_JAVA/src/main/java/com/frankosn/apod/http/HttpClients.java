@@ -0,0 +1,49 @@
+package com.frankosn.apod.http;
+
+import com.frankosn.apod.config.ConfigLoader;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holder for the process-wide OkHttp client shared by API and image requests,
+ * so both reuse the same connection pool, keep-alive connections and HTTP/2 sessions.
+ */
+public class HttpClients {
+
+    private static final OkHttpClient shared = createClient();
+
+    private HttpClients() {
+    }
+
+    /**
+     * Returns the shared client. Derive specialized clients with {@code newBuilder()}
+     * so they keep sharing the pool and dispatcher.
+     */
+    public static OkHttpClient shared() {
+        return shared;
+    }
+
+    private static OkHttpClient createClient() {
+        int maxConnections = ConfigLoader.getMaxConnections();
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxConnections * 2);
+        dispatcher.setMaxRequestsPerHost(maxConnections);
+
+        return new OkHttpClient.Builder()
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectionPool(new ConnectionPool(maxConnections,
+                        ConfigLoader.getKeepAliveSeconds(), TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(ConfigLoader.getConnectTimeoutSeconds(), TimeUnit.SECONDS)
+                .readTimeout(ConfigLoader.getReadTimeoutSeconds(), TimeUnit.SECONDS)
+                .writeTimeout(ConfigLoader.getReadTimeoutSeconds(), TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+    }
+}
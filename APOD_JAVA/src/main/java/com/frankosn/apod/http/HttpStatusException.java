@@ -0,0 +1,23 @@
+package com.frankosn.apod.http;
+
+import java.io.IOException;
+
+/**
+ * Signals an unsuccessful HTTP response, keeping the status code so callers
+ * can decide whether the request is worth retrying.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public HttpStatusException(String message, int statusCode) {
+        super(message + ": HTTP " + statusCode);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,37 @@
+package com.frankosn.apod.http;
+
+import com.frankosn.apod.metrics.Metrics;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+/**
+ * Network interceptor recording the latency of every request that reaches the network,
+ * up to the response headers, by client and HTTP status ("error" when no response arrived).
+ */
+public class MetricsInterceptor implements Interceptor {
+
+    private static final String LATENCY = "apod_http_request_duration_seconds";
+    private static final String LATENCY_HELP = "Latency of HTTP requests until response headers arrive";
+
+    private final String client;
+
+    public MetricsInterceptor(String client) {
+        this.client = client;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        long started = System.nanoTime();
+        try {
+            Response response = chain.proceed(chain.request());
+            Metrics.latency(LATENCY, LATENCY_HELP, "client", client, "status", String.valueOf(response.code()))
+                    .observeSince(started);
+            return response;
+        } catch (IOException e) {
+            Metrics.latency(LATENCY, LATENCY_HELP, "client", client, "status", "error").observeSince(started);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.frankosn.apod.http;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token-bucket request scheduler shared by every caller of an API. The bucket refills
+ * at the hourly limit announced in the X-RateLimit-Limit header and is re-synchronized
+ * with X-RateLimit-Remaining after each response, so concurrent jobs spend one common
+ * budget. An HTTP 429 pauses all callers, honoring Retry-After or backing off exponentially.
+ * <p>
+ * Callers take a token before sending a request the cache cannot answer, so waiting never
+ * holds a pooled connection or a dispatcher slot. The limiter itself is installed as a
+ * network interceptor that only reads the rate-limit headers of each response, so
+ * OkHttp's own retries of a request do not spend another token.
+ */
+public class RateLimiter implements Interceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+    private static final long NANOS_PER_HOUR = TimeUnit.HOURS.toNanos(1);
+    private static final long INITIAL_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private int configuredLimit;
+    private int serverLimit = Integer.MAX_VALUE;
+    private int limit;
+    private double tokens;
+    private long lastRefillNanos;
+    private long pausedUntilNanos;
+    private int consecutiveThrottles;
+
+    /**
+     * Creates a limiter allowing at most the given number of requests per hour until the
+     * server announces its own (lower) limit.
+     */
+    public RateLimiter(int requestsPerHour) {
+        this.configuredLimit = requestsPerHour;
+        this.limit = requestsPerHour;
+        this.tokens = requestsPerHour;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until a request may be sent, then consumes one token.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        while ((waitNanos = tryAcquire()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Consumes one token if a request may be sent now and returns 0; otherwise returns the
+     * nanoseconds to wait before trying again.
+     */
+    public long tryAcquire() {
+        lock.lock();
+        try {
+            refill();
+            long now = System.nanoTime();
+            if (now < pausedUntilNanos) {
+                return pausedUntilNanos - now;
+            }
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) ((1 - tokens) * NANOS_PER_HOUR / limit));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the budget from the server's rate-limit headers.
+     */
+    public void onRateLimitHeaders(int serverLimit, int remaining) {
+        lock.lock();
+        try {
+            refill();
+            this.serverLimit = serverLimit;
+            limit = Math.max(1, Math.min(configuredLimit, serverLimit));
+            // The server is authoritative: other processes may share the same API key
+            tokens = Math.min(Math.max(0, remaining), limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pauses all callers after an HTTP 429, for Retry-After seconds when given.
+     */
+    public void onThrottled(long retryAfterSeconds) {
+        lock.lock();
+        try {
+            consecutiveThrottles++;
+            long backoff = retryAfterSeconds > 0
+                    ? TimeUnit.SECONDS.toNanos(retryAfterSeconds)
+                    : Math.min(MAX_BACKOFF_NANOS, INITIAL_BACKOFF_NANOS << Math.min(consecutiveThrottles - 1, 10));
+            pausedUntilNanos = Math.max(pausedUntilNanos, System.nanoTime() + backoff);
+            tokens = 0;
+            logger.warn("API rate limit hit, pausing requests for {} s", TimeUnit.NANOSECONDS.toSeconds(backoff));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the configured ceiling on requests per hour at runtime. A raised ceiling
+     * still never exceeds the limit last announced by the server.
+     */
+    public void setRequestsPerHour(int requestsPerHour) {
+        lock.lock();
+        try {
+            refill();
+            configuredLimit = requestsPerHour;
+            limit = Math.max(1, Math.min(requestsPerHour, serverLimit));
+            tokens = Math.min(tokens, limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Current hourly limit in effect.
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tokens currently available without waiting.
+     */
+    public double getAvailableTokens() {
+        lock.lock();
+        try {
+            refill();
+            return tokens;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+
+        Integer serverLimit = parseHeader(response, "X-RateLimit-Limit");
+        Integer remaining = parseHeader(response, "X-RateLimit-Remaining");
+        if (serverLimit != null && remaining != null) {
+            onRateLimitHeaders(serverLimit, remaining);
+        }
+
+        if (response.code() == HTTP_TOO_MANY_REQUESTS) {
+            Integer retryAfter = parseHeader(response, "Retry-After");
+            onThrottled(retryAfter != null ? retryAfter : 0);
+        } else if (response.isSuccessful()) {
+            lock.lock();
+            try {
+                consecutiveThrottles = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+        return response;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(limit, tokens + (double) (now - lastRefillNanos) * limit / NANOS_PER_HOUR);
+        lastRefillNanos = now;
+    }
+
+    private static Integer parseHeader(Response response, String name) {
+        String value = response.header(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value.strip());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.frankosn.apod.http;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.metrics.Metrics;
+import okhttp3.HttpUrl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Retries I/O operations with exponential backoff and jitter, bounded by a maximum
+ * number of attempts and an overall deadline. Works together with a {@link CircuitBreaker}:
+ * while the circuit is open, attempts wait for the cool-down instead of hitting the host.
+ */
+public class RetryPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+    private static final Set<Integer> RETRYABLE_STATUS_CODES = Set.of(408, 425, 429, 500, 502, 503, 504);
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final long deadlineNanos;
+
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, long deadlineMillis) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+    }
+
+    /**
+     * Creates the policy described by the APOD_RETRY_* settings.
+     */
+    public static RetryPolicy fromConfig() {
+        return new RetryPolicy(
+                ConfigLoader.getRetryMaxAttempts(),
+                ConfigLoader.getRetryInitialBackoffMillis(),
+                ConfigLoader.getRetryMaxBackoffMillis(),
+                TimeUnit.SECONDS.toMillis(ConfigLoader.getRetryDeadlineSeconds()));
+    }
+
+    /**
+     * Returns the circuit breaker for a URL's host and port, configured from the
+     * APOD_CIRCUIT_* settings.
+     */
+    public static CircuitBreaker breakerFor(HttpUrl url) {
+        return CircuitBreaker.forHost(url.host() + ":" + url.port(), ConfigLoader.getCircuitFailureThreshold(),
+                ConfigLoader.getCircuitOpenSeconds(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs the operation until it succeeds, fails with a non-retryable error, or runs out
+     * of attempts or time. The last error is rethrown.
+     */
+    public <T> T execute(String operation, CircuitBreaker breaker, IOOperation<T> action) throws IOException {
+        long start = System.nanoTime();
+        IOException lastError = null;
+
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            long wait;
+            while ((wait = breaker.tryAcquire()) > 0) {
+                if (System.nanoTime() + wait - start > deadlineNanos) {
+                    throw new IOException("Circuit open for " + breaker.getName()
+                            + (lastError != null ? ": " + lastError.getMessage() : ""), lastError);
+                }
+                sleep(wait);
+            }
+
+            long attemptStart = System.nanoTime();
+            try {
+                T result = action.run();
+                breaker.onSuccess();
+                logger.debug("{} attempt {}/{} succeeded in {} ms", operation, attempt, maxAttempts,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - attemptStart));
+                return result;
+            } catch (IOException e) {
+                lastError = e;
+                long backoff = onFailure(operation, breaker, attempt, start, attemptStart, e);
+                if (backoff < 0) {
+                    throw e;
+                }
+                sleep(backoff);
+            } catch (RuntimeException e) {
+                breaker.release();
+                throw e;
+            }
+        }
+        throw lastError;
+    }
+
+    /**
+     * Asynchronous variant of {@link #execute}: starts attempts without blocking and waits
+     * out backoffs and open circuits on a timer instead of a sleeping thread. Completing the
+     * returned future, e.g. by cancelling it or by a timeout, cancels the running attempt
+     * and stops further retries.
+     */
+    public <T> CompletableFuture<T> executeAsync(String operation, CircuitBreaker breaker, AsyncOperation<T> action) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<T>> running = new AtomicReference<>();
+        result.whenComplete((value, error) -> {
+            CompletableFuture<T> attempt = running.get();
+            if (attempt != null) {
+                attempt.cancel(true);
+            }
+        });
+        attemptAsync(operation, breaker, action, 1, System.nanoTime(), null, result, running);
+        return result;
+    }
+
+    private <T> void attemptAsync(String operation, CircuitBreaker breaker, AsyncOperation<T> action, int attempt,
+                                  long start, IOException lastError, CompletableFuture<T> result,
+                                  AtomicReference<CompletableFuture<T>> running) {
+        if (result.isDone()) {
+            return;
+        }
+        long wait = breaker.tryAcquire();
+        if (wait > 0) {
+            if (System.nanoTime() + wait - start > deadlineNanos) {
+                result.completeExceptionally(new IOException("Circuit open for " + breaker.getName()
+                        + (lastError != null ? ": " + lastError.getMessage() : ""), lastError));
+                return;
+            }
+            CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS).execute(() ->
+                    attemptAsync(operation, breaker, action, attempt, start, lastError, result, running));
+            return;
+        }
+
+        long attemptStart = System.nanoTime();
+        CompletableFuture<T> pending;
+        try {
+            pending = action.start();
+        } catch (IOException e) {
+            pending = CompletableFuture.failedFuture(e);
+        }
+        running.set(pending);
+        if (result.isDone()) {
+            pending.cancel(true);
+            breaker.release();
+            return;
+        }
+
+        pending.whenComplete((value, error) -> {
+            if (error == null) {
+                breaker.onSuccess();
+                logger.debug("{} attempt {}/{} succeeded in {} ms", operation, attempt, maxAttempts,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - attemptStart));
+                result.complete(value);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            if (result.isDone()) {
+                // Cancelled or timed out by the caller; the attempt was cancelled with it
+                breaker.release();
+                return;
+            }
+            if (!(cause instanceof IOException e)) {
+                breaker.release();
+                result.completeExceptionally(cause);
+                return;
+            }
+            long backoff = onFailure(operation, breaker, attempt, start, attemptStart, e);
+            if (backoff < 0) {
+                result.completeExceptionally(e);
+                return;
+            }
+            CompletableFuture.delayedExecutor(backoff, TimeUnit.NANOSECONDS).execute(() ->
+                    attemptAsync(operation, breaker, action, attempt + 1, start, e, result, running));
+        });
+    }
+
+    /**
+     * Records a failed attempt with the circuit breaker and decides what comes next: returns
+     * the backoff before the next attempt, or -1 to give up. Only host failures count against
+     * the circuit; a rejected request, like a 429 or another 4xx, is neither a failure nor a
+     * success, so it just gives back the attempt's permission without resetting the streak.
+     */
+    private long onFailure(String operation, CircuitBreaker breaker, int attempt, long start, long attemptStart,
+                           IOException e) {
+        if (isHostFailure(e)) {
+            breaker.onFailure();
+        } else {
+            breaker.release();
+        }
+        logger.debug("{} attempt {}/{} failed in {} ms: {}", operation, attempt, maxAttempts,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - attemptStart), e.getMessage());
+
+        if (!isRetryable(e) || attempt == maxAttempts) {
+            countGiveUp(breaker, e);
+            return -1;
+        }
+        long backoff = backoffNanos(attempt);
+        if (System.nanoTime() + backoff - start > deadlineNanos) {
+            countGiveUp(breaker, e);
+            return -1;
+        }
+        Metrics.counter("apod_retries_total", "Requests retried after a transient failure",
+                "host", breaker.getName()).inc();
+        return backoff;
+    }
+
+    private static void countGiveUp(CircuitBreaker breaker, IOException e) {
+        if (isRetryable(e)) {
+            Metrics.counter("apod_retries_exhausted_total", "Requests that still failed after all retries",
+                    "host", breaker.getName()).inc();
+        }
+    }
+
+    /**
+     * Whether an error is transient: connection problems and retryable status codes.
+     */
+    public static boolean isRetryable(IOException e) {
+        if (isInterrupted(e)) {
+            return false;
+        }
+        if (e instanceof HttpStatusException statusError) {
+            return RETRYABLE_STATUS_CODES.contains(statusError.getStatusCode());
+        }
+        return true;
+    }
+
+    /**
+     * Whether an error means the host itself is unhealthy, as opposed to rejecting the request.
+     */
+    private static boolean isHostFailure(IOException e) {
+        if (isInterrupted(e)) {
+            return false;
+        }
+        if (e instanceof HttpStatusException statusError) {
+            return statusError.getStatusCode() >= 500;
+        }
+        return true;
+    }
+
+    /**
+     * Whether an error comes from this thread being interrupted, e.g. on shutdown, rather
+     * than from the request.
+     */
+    private static boolean isInterrupted(IOException e) {
+        return e instanceof InterruptedIOException && Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Exponential backoff with jitter: a random delay between half and all of
+     * min(max, initial * 2^(attempt - 1)), so concurrent callers do not retry in lockstep.
+     */
+    private long backoffNanos(int attempt) {
+        long ceiling = Math.min(maxBackoffNanos, initialBackoffNanos << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * An I/O operation that can be retried.
+     */
+    @FunctionalInterface
+    public interface IOOperation<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * An asynchronous I/O operation that can be retried; each call starts a new attempt.
+     */
+    @FunctionalInterface
+    public interface AsyncOperation<T> {
+        CompletableFuture<T> start() throws IOException;
+    }
+}
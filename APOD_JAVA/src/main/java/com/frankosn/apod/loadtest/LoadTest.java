@@ -0,0 +1,185 @@
+package com.frankosn.apod.loadtest;
+
+import com.frankosn.apod.service.ApodService;
+import com.frankosn.apod.service.DownloadEngine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end load scenarios against a {@link MockApodServer}: range downloads through the
+ * {@link DownloadEngine} pipeline, as run by the CLI and batch mode, and concurrent
+ * single-date lookups through {@link ApodService#fetch(String)}. Every run requests dates
+ * no earlier run has seen, so nothing is answered from the caches or the manifest.
+ * <p>
+ * {@link #configure} must be called before ApodService is first used in the JVM, since the
+ * API base URL and the HTTP cache are fixed when it is loaded.
+ */
+public class LoadTest {
+
+    private static final LocalDate FIRST_DATE = LocalDate.of(1995, 6, 16);
+
+    private final MockApodServer server;
+    private final Path workDir;
+    private LocalDate nextStart = FIRST_DATE;
+    private int runs;
+
+    private LoadTest(MockApodServer server, Path workDir) {
+        this.server = server;
+        this.workDir = workDir;
+    }
+
+    /**
+     * Points the application's API client at the server, with its HTTP cache and downloads
+     * under the work directory and no client-side rate limit beyond the one the server
+     * announces.
+     */
+    public static LoadTest configure(MockApodServer server, Path workDir) throws IOException {
+        Files.createDirectories(workDir);
+        System.setProperty("APOD_API_BASE_URL", server.getApiUrl());
+        System.setProperty("APOD_CACHE_DIR", workDir.resolve("cache").toString());
+        System.setProperty("APOD_RATE_LIMIT_PER_HOUR", String.valueOf(Integer.MAX_VALUE));
+        if (System.getenv("NASA_API_KEY") == null && System.getProperty("NASA_API_KEY") == null) {
+            System.setProperty("NASA_API_KEY", "LOADTEST");
+        }
+        return new LoadTest(server, workDir);
+    }
+
+    /**
+     * Downloads a range of days into a fresh images directory with the given pipeline
+     * concurrency. Per-date latency is the engine's: from a date's metadata arriving to its
+     * image and metadata being stored.
+     */
+    public Report runPipeline(int days, int metadataConcurrency, int imageConcurrency, int writerConcurrency,
+                              int queueCapacity) throws IOException, InterruptedException {
+        List<LocalDate> dates = nextDates(days);
+        Path images = Files.createDirectories(workDir.resolve("run-" + ++runs));
+        DownloadEngine engine = new DownloadEngine(images.toString(), metadataConcurrency, imageConcurrency,
+                writerConcurrency, queueCapacity);
+
+        MockApodServer.Stats before = server.getStats();
+        long started = System.nanoTime();
+        List<DownloadEngine.Result> results = engine.download(dates, result -> { });
+        long elapsed = System.nanoTime() - started;
+
+        long[] latencies = new long[results.size()];
+        int succeeded = 0;
+        for (int i = 0; i < results.size(); i++) {
+            DownloadEngine.Result result = results.get(i);
+            latencies[i] = TimeUnit.MILLISECONDS.toNanos(result.millis());
+            if (result.isSuccess()) {
+                succeeded++;
+            }
+        }
+        String scenario = String.format("pipeline %d/%d/%d", metadataConcurrency, imageConcurrency, writerConcurrency);
+        return new Report(scenario, dates.size(), succeeded, elapsed, latencies, since(before));
+    }
+
+    /**
+     * Looks up a range of days as concurrent single-date requests, all started at once.
+     * Per-date latency is from starting a lookup to its completion.
+     */
+    public Report runLookups(int days) {
+        List<LocalDate> dates = nextDates(days);
+        ApodService service = new ApodService();
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<Boolean>> lookups = new ArrayList<>(dates.size());
+
+        MockApodServer.Stats before = server.getStats();
+        long started = System.nanoTime();
+        for (LocalDate date : dates) {
+            long issued = System.nanoTime();
+            lookups.add(service.fetch(date).handle((data, error) -> {
+                latencies.add(System.nanoTime() - issued);
+                return error == null;
+            }));
+        }
+        int succeeded = 0;
+        for (CompletableFuture<Boolean> lookup : lookups) {
+            if (lookup.join()) {
+                succeeded++;
+            }
+        }
+        long elapsed = System.nanoTime() - started;
+
+        long[] measured = latencies.stream().mapToLong(Long::longValue).toArray();
+        return new Report("async lookups", dates.size(), succeeded, elapsed, measured, since(before));
+    }
+
+    /**
+     * Deletes the work directory, including every downloaded image.
+     */
+    public void cleanUp() throws IOException {
+        if (!Files.exists(workDir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private List<LocalDate> nextDates(int days) {
+        if (days < 1) {
+            throw new IllegalArgumentException("A run needs at least one day");
+        }
+        List<LocalDate> dates = nextStart.datesUntil(nextStart.plusDays(days)).toList();
+        nextStart = nextStart.plusDays(days);
+        return dates;
+    }
+
+    private MockApodServer.Stats since(MockApodServer.Stats before) {
+        MockApodServer.Stats now = server.getStats();
+        return new MockApodServer.Stats(now.apiRequests() - before.apiRequests(),
+                now.imageRequests() - before.imageRequests(), now.failed() - before.failed(),
+                now.throttled() - before.throttled(), now.bytesSent() - before.bytesSent());
+    }
+
+    /**
+     * Outcome of one run: throughput over the whole run and per-date latency percentiles.
+     */
+    public record Report(String scenario, int dates, int succeeded, long elapsedNanos, long[] latencyNanos,
+                         MockApodServer.Stats served) {
+
+        public Report {
+            latencyNanos = latencyNanos.clone();
+            Arrays.sort(latencyNanos);
+        }
+
+        /**
+         * Dates completed successfully per second of the run.
+         */
+        public double perSecond() {
+            return elapsedNanos == 0 ? 0 : succeeded / (elapsedNanos / 1e9);
+        }
+
+        /**
+         * Per-date latency at a percentile between 0 and 100, in milliseconds (nearest rank).
+         */
+        public double percentileMillis(double percentile) {
+            if (latencyNanos.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * latencyNanos.length);
+            return latencyNanos[Math.max(0, rank - 1)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-20s %4d/%-4d ok  %8.1f /s  p50 %8.1f ms  p99 %8.1f ms  %6d ms total  (%s)",
+                    scenario, succeeded, dates, perSecond(), percentileMillis(50), percentileMillis(99),
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), served);
+        }
+    }
+}
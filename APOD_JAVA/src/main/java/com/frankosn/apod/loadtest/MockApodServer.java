@@ -0,0 +1,441 @@
+package com.frankosn.apod.loadtest;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for the APOD API and its image host. Answers date and
+ * start_date/end_date queries with synthetic entries whose images it serves itself, and
+ * shapes every response according to a {@link Profile}: added latency, a bandwidth cap,
+ * a share of requests failing with 503 or throttled with 429, and optionally an hourly
+ * API budget announced in X-RateLimit-* headers. Images are real JPEGs served with an
+ * ETag and honoring Range and If-Range, so decoding, thumbnails and resumed downloads are
+ * exercised too.
+ * <p>
+ * Point the application at it with APOD_API_BASE_URL set to {@link #getApiUrl()}.
+ */
+public final class MockApodServer implements AutoCloseable {
+
+    public static final String API_PATH = "/planetary/apod";
+
+    private static final String IMAGE_PATH = "/images";
+    private static final Gson gson = new Gson();
+    private static final int CHUNK_BYTES = 16 * 1024;
+    private static final int MAX_COMMENT_BYTES = 65533;
+    private static final long HOUR_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    // Typical APOD explanations run to about a thousand characters
+    private static final String EXPLANATION = ("What's happening in the center of this galaxy? "
+            + "Dust lanes, star clusters and glowing gas trace its spiral arms. ").repeat(9);
+
+    private final Profile profile;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final byte[] image;
+    private final String etag;
+    private final LongAdder apiRequests = new LongAdder();
+    private final LongAdder imageRequests = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private long budgetWindowStart = System.nanoTime();
+    private int budgetUsed;
+
+    /**
+     * Starts a server on a free loopback port.
+     */
+    public MockApodServer(Profile profile) throws IOException {
+        this(profile, InetAddress.getLoopbackAddress(), 0);
+    }
+
+    public MockApodServer(Profile profile, InetAddress address, int port) throws IOException {
+        this.profile = profile;
+        this.image = jpeg(profile.imageBytes());
+        this.etag = "\"" + Integer.toHexString(Arrays.hashCode(image)) + "\"";
+
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext(API_PATH, this::handleApi);
+        server.createContext(IMAGE_PATH, this::handleImage);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getApiUrl() {
+        return baseUrl() + API_PATH;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Returns what the server has answered so far.
+     */
+    public Stats getStats() {
+        return new Stats(apiRequests.sum(), imageRequests.sum(), failed.sum(), throttled.sum(), bytesSent.sum());
+    }
+
+    /**
+     * Returns the synthetic APOD entry of a date, with its image below the given base URL.
+     */
+    public static Map<String, String> entry(LocalDate date, String imageBaseUrl) {
+        String image = imageBaseUrl + "/" + date + ".jpg";
+        Map<String, String> apod = new LinkedHashMap<>();
+        apod.put("copyright", "Mock Observatory");
+        apod.put("date", date.toString());
+        apod.put("explanation", EXPLANATION);
+        apod.put("hdurl", image);
+        apod.put("media_type", "image");
+        apod.put("service_version", "v1");
+        apod.put("title", "Synthetic Galaxy " + date);
+        apod.put("url", image);
+        return apod;
+    }
+
+    /**
+     * Encodes a synthetic sky as a JPEG and pads it with comment segments, which decoders
+     * skip, to the requested size. Sizes below the encoded size get the plain encoding.
+     */
+    static byte[] jpeg(int size) throws IOException {
+        BufferedImage sky = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < sky.getHeight(); y++) {
+            for (int x = 0; x < sky.getWidth(); x++) {
+                int glow = Math.max(0, 120 - (int) Math.hypot(x - 320, y - 240) / 2);
+                sky.setRGB(x, y, (glow / 2) << 16 | (glow / 3) << 8 | glow);
+            }
+        }
+        for (int star = 0; star < 400; star++) {
+            sky.setRGB(random.nextInt(sky.getWidth()), random.nextInt(sky.getHeight()), 0xFFFFFF);
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(sky, "jpg", encoded);
+        byte[] plain = encoded.toByteArray();
+
+        // Comment segments go right after the start-of-image marker
+        ByteArrayOutputStream padded = new ByteArrayOutputStream(Math.max(size, plain.length));
+        padded.write(plain, 0, 2);
+        int missing = size - plain.length;
+        while (missing >= 4) {
+            int length = Math.min(missing - 4, MAX_COMMENT_BYTES);
+            byte[] comment = new byte[length];
+            random.nextBytes(comment);
+            padded.write(0xFF);
+            padded.write(0xFE);
+            padded.write((length + 2) >> 8);
+            padded.write((length + 2) & 0xFF);
+            padded.write(comment, 0, length);
+            missing -= length + 4;
+        }
+        padded.write(plain, 2, plain.length - 2);
+        return padded.toByteArray();
+    }
+
+    private String baseUrl() {
+        String host = server.getAddress().getAddress().isAnyLocalAddress()
+                ? "127.0.0.1" : server.getAddress().getAddress().getHostAddress();
+        return "http://" + host + ":" + getPort();
+    }
+
+    private void handleApi(HttpExchange exchange) throws IOException {
+        apiRequests.increment();
+        if (!admit(exchange) || !spendBudget(exchange)) {
+            return;
+        }
+
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String imageBaseUrl = baseUrl() + IMAGE_PATH;
+        Object body;
+        try {
+            if (query.containsKey("start_date")) {
+                LocalDate start = LocalDate.parse(query.get("start_date"));
+                LocalDate end = LocalDate.parse(query.getOrDefault("end_date", start.toString()));
+                List<Map<String, String>> entries = new ArrayList<>();
+                for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+                    entries.add(entry(date, imageBaseUrl));
+                }
+                body = entries;
+            } else if (query.containsKey("date")) {
+                body = entry(LocalDate.parse(query.get("date")), imageBaseUrl);
+            } else {
+                body = entry(LocalDate.now(), imageBaseUrl);
+            }
+        } catch (DateTimeParseException e) {
+            sendError(exchange, 400);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        send(exchange, 200, gson.toJson(body).getBytes(StandardCharsets.UTF_8), 0);
+    }
+
+    private void handleImage(HttpExchange exchange) throws IOException {
+        imageRequests.increment();
+        if (!admit(exchange)) {
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().set("ETag", etag);
+
+        // A resume of another version of the image gets the whole current one
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        int offset = range == null || (ifRange != null && !ifRange.equals(etag)) ? 0 : rangeStart(range);
+        if (offset >= image.length) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + image.length);
+            sendError(exchange, 416);
+            return;
+        }
+        if (offset > 0) {
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + offset + "-" + (image.length - 1) + "/" + image.length);
+            send(exchange, 206, image, offset);
+        } else {
+            send(exchange, 200, image, 0);
+        }
+    }
+
+    /**
+     * Returns the first byte asked for by an open-ended "bytes=N-" range, or 0 for any
+     * other form, which is answered with the whole image.
+     */
+    private static int rangeStart(String range) {
+        if (!range.startsWith("bytes=") || !range.endsWith("-")) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(range.substring(6, range.length() - 1)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Counts an API request against the profile's hourly budget, announcing what is left in
+     * X-RateLimit-* headers like the real API, and answers 429 once it is spent. Returns
+     * whether the request should be answered normally.
+     */
+    private boolean spendBudget(HttpExchange exchange) throws IOException {
+        int limit = profile.requestsPerHour();
+        if (limit == 0) {
+            return true;
+        }
+        boolean allowed;
+        int remaining;
+        long resetNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - budgetWindowStart >= HOUR_NANOS) {
+                budgetWindowStart = now;
+                budgetUsed = 0;
+            }
+            allowed = budgetUsed < limit;
+            if (allowed) {
+                budgetUsed++;
+            }
+            remaining = limit - budgetUsed;
+            resetNanos = budgetWindowStart + HOUR_NANOS - now;
+        }
+        exchange.getResponseHeaders().set("X-RateLimit-Limit", String.valueOf(limit));
+        exchange.getResponseHeaders().set("X-RateLimit-Remaining", String.valueOf(remaining));
+        if (!allowed) {
+            throttled.increment();
+            exchange.getResponseHeaders().set("Retry-After",
+                    String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(resetNanos))));
+            sendError(exchange, 429);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits out the profile's latency, then fails or throttles the request according to its
+     * rates. Returns whether the request should be answered normally.
+     */
+    private boolean admit(HttpExchange exchange) throws IOException {
+        try {
+            if (profile.latencyMillis() > 0) {
+                Thread.sleep(profile.latencyMillis());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while delaying response");
+        }
+
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < profile.throttleRate()) {
+            throttled.increment();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 429);
+            return false;
+        }
+        if (roll < profile.throttleRate() + profile.errorRate()) {
+            failed.increment();
+            sendError(exchange, 503);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sends a body from an offset on in chunks, pacing them to the profile's bandwidth when
+     * it has one.
+     */
+    private void send(HttpExchange exchange, int status, byte[] body, int from) throws IOException {
+        exchange.sendResponseHeaders(status, body.length - from);
+        long started = System.nanoTime();
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int offset = from; offset < body.length; offset += CHUNK_BYTES) {
+                int length = Math.min(CHUNK_BYTES, body.length - offset);
+                out.write(body, offset, length);
+                bytesSent.add(length);
+                if (profile.bytesPerSecond() > 0) {
+                    long due = started + TimeUnit.SECONDS.toNanos(offset - from + length) / profile.bytesPerSecond();
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending response");
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * How the server shapes its responses. Latency is added before every response, the
+     * bandwidth (0 for unlimited) caps each response body on its own, and the rates are the
+     * shares of requests answered with 429 and 503 instead. A non-zero hourly limit is
+     * announced in X-RateLimit-* headers and answers API requests beyond it with 429.
+     */
+    public record Profile(String name, long latencyMillis, long bytesPerSecond, double errorRate,
+                          double throttleRate, int requestsPerHour, int imageBytes) {
+
+        public Profile {
+            if (latencyMillis < 0 || bytesPerSecond < 0 || requestsPerHour < 0 || imageBytes < 0) {
+                throw new IllegalArgumentException("Latency, bandwidth, hourly limit and image size cannot be negative");
+            }
+            if (errorRate < 0 || throttleRate < 0 || errorRate + throttleRate > 1) {
+                throw new IllegalArgumentException("Error and throttle rates must be shares between 0 and 1");
+            }
+        }
+
+        /**
+         * Returns a built-in profile: "fast" (loopback speed), "slow" (high latency and a
+         * 2 MB/s cap), "flaky" (5% 503s) or "throttled" (10% 429s and the API's usual
+         * 1000 requests per hour).
+         *
+         * @throws IllegalArgumentException for an unknown name
+         */
+        public static Profile named(String name) {
+            return switch (name) {
+                case "fast" -> new Profile(name, 0, 0, 0, 0, 0, 256 * 1024);
+                case "slow" -> new Profile(name, 150, 2L * 1024 * 1024, 0, 0, 0, 256 * 1024);
+                case "flaky" -> new Profile(name, 20, 0, 0.05, 0, 0, 256 * 1024);
+                case "throttled" -> new Profile(name, 20, 0, 0, 0.10, 1000, 256 * 1024);
+                default -> throw new IllegalArgumentException("Unknown profile: " + name
+                        + " (expected fast, slow, flaky or throttled)");
+            };
+        }
+
+        public Profile withLatency(long millis) {
+            return new Profile("custom", millis, bytesPerSecond, errorRate, throttleRate, requestsPerHour, imageBytes);
+        }
+
+        public Profile withBandwidth(long bytes) {
+            return new Profile("custom", latencyMillis, bytes, errorRate, throttleRate, requestsPerHour, imageBytes);
+        }
+
+        public Profile withErrorRate(double rate) {
+            return new Profile("custom", latencyMillis, bytesPerSecond, rate, throttleRate, requestsPerHour, imageBytes);
+        }
+
+        public Profile withThrottleRate(double rate) {
+            return new Profile("custom", latencyMillis, bytesPerSecond, errorRate, rate, requestsPerHour, imageBytes);
+        }
+
+        public Profile withRequestsPerHour(int limit) {
+            return new Profile("custom", latencyMillis, bytesPerSecond, errorRate, throttleRate, limit, imageBytes);
+        }
+
+        public Profile withImageBytes(int bytes) {
+            return new Profile(name, latencyMillis, bytesPerSecond, errorRate, throttleRate, requestsPerHour, bytes);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[latency=%d ms, bandwidth=%s, errors=%.0f%%, 429s=%.0f%%, limit=%s, image=%d KB]",
+                    name, latencyMillis, bytesPerSecond == 0 ? "unlimited" : bytesPerSecond / 1024 + " KB/s",
+                    errorRate * 100, throttleRate * 100, requestsPerHour == 0 ? "none" : requestsPerHour + "/h",
+                    imageBytes / 1024);
+        }
+    }
+
+    /**
+     * Requests answered so far, by endpoint, and how many were failed or throttled on purpose.
+     */
+    public record Stats(long apiRequests, long imageRequests, long failed, long throttled, long bytesSent) {
+        @Override
+        public String toString() {
+            return String.format("%d API and %d image request(s), %d failed with 503, %d throttled with 429, %.1f MB sent",
+                    apiRequests, imageRequests, failed, throttled, bytesSent / 1048576.0);
+        }
+    }
+}
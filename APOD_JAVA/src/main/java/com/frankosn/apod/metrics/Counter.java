@@ -0,0 +1,30 @@
+package com.frankosn.apod.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Monotonically increasing count, cheap to update from many threads. A counter may
+ * instead read a total kept elsewhere, such as a cache's hit count.
+ */
+public class Counter {
+
+    private final LongAdder value = new LongAdder();
+    private final LongSupplier supplier;
+
+    Counter(LongSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    public void inc() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return supplier != null ? supplier.getAsLong() : value.sum();
+    }
+}
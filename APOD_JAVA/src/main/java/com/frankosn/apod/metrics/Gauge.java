@@ -0,0 +1,37 @@
+package com.frankosn.apod.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Current value of something, either set explicitly or read from a supplier on demand.
+ */
+public class Gauge {
+
+    private volatile DoubleSupplier supplier;
+    private volatile double value;
+
+    Gauge(DoubleSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    /**
+     * Sets a fixed value, replacing any supplier.
+     */
+    public void set(double value) {
+        this.value = value;
+        this.supplier = null;
+    }
+
+    /**
+     * Reads the value from the supplier from now on, e.g. the size of the queue currently
+     * in use.
+     */
+    public void track(DoubleSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    public double get() {
+        DoubleSupplier current = supplier;
+        return current != null ? current.getAsDouble() : value;
+    }
+}
@@ -0,0 +1,235 @@
+package com.frankosn.apod.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of counters, gauges and latency histograms. Metrics are created
+ * on first use and identified by name plus label pairs; they are exposed over JMX and in
+ * the Prometheus text format.
+ */
+public class Metrics {
+
+    static final String OBJECT_NAME = "com.frankosn.apod:type=Metrics";
+
+    private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+    private static final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMXBean() {
+                @Override
+                public Map<String, Double> getValues() {
+                    return snapshot();
+                }
+
+                @Override
+                public String getPrometheusText() {
+                    return toPrometheusText();
+                }
+            }, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            logger.debug("Could not register metrics MBean", e);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the counter with the given name and label pairs (key1, value1, key2, ...).
+     */
+    public static Counter counter(String name, String help, String... labels) {
+        return family(name, help, Type.COUNTER).get(labels, l -> new Counter(null));
+    }
+
+    /**
+     * Registers a counter that reads its total from the supplier whenever it is exported.
+     */
+    public static Counter counter(String name, String help, LongSupplier supplier, String... labels) {
+        return family(name, help, Type.COUNTER).get(labels, l -> new Counter(supplier));
+    }
+
+    /**
+     * Returns the settable gauge with the given name and label pairs.
+     */
+    public static Gauge gauge(String name, String help, String... labels) {
+        return family(name, help, Type.GAUGE).get(labels, l -> new Gauge(null));
+    }
+
+    /**
+     * Registers a gauge that reads its value from the supplier whenever it is exported.
+     */
+    public static Gauge gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        return family(name, help, Type.GAUGE).get(labels, l -> new Gauge(supplier));
+    }
+
+    /**
+     * Returns the histogram of durations in seconds with the given name and label pairs.
+     */
+    public static Histogram latency(String name, String help, String... labels) {
+        return family(name, help, Type.HISTOGRAM).get(labels, l -> new Histogram(Histogram.LATENCY_BUCKETS));
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format (version 0.0.4).
+     */
+    public static String toPrometheusText() {
+        StringBuilder out = new StringBuilder();
+        for (Family family : new TreeMap<>(families).values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(escapeHelp(family.help)).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.text).append('\n');
+            for (Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                String labels = series.getKey();
+                switch (series.getValue()) {
+                    case Counter counter -> sample(out, family.name, labels, counter.get());
+                    case Gauge gauge -> sample(out, family.name, labels, gauge.get());
+                    case Histogram histogram -> {
+                        double[] bounds = histogram.getBounds();
+                        long[] counts = histogram.getCumulativeCounts();
+                        for (int i = 0; i < bounds.length; i++) {
+                            sample(out, family.name + "_bucket", withLabel(labels, "le", format(bounds[i])), counts[i]);
+                        }
+                        sample(out, family.name + "_bucket", withLabel(labels, "le", "+Inf"), histogram.getCount());
+                        sample(out, family.name + "_sum", labels, histogram.getSum());
+                        sample(out, family.name + "_count", labels, histogram.getCount());
+                    }
+                    default -> throw new IllegalStateException("Unknown metric " + series.getValue());
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the Prometheus text dump to a file, e.g. for a node exporter textfile collector.
+     * The dump is written next to the file and renamed over it atomically, so a collector
+     * never reads a partial file.
+     */
+    public static void writePrometheusText(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        Files.writeString(temp, toPrometheusText(), StandardCharsets.UTF_8);
+        Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Returns the current value of every series, with histograms reduced to count and sum.
+     */
+    public static Map<String, Double> snapshot() {
+        Map<String, Double> values = new TreeMap<>();
+        for (Family family : families.values()) {
+            family.series.forEach((labels, metric) -> {
+                switch (metric) {
+                    case Counter counter -> values.put(family.name + labels, (double) counter.get());
+                    case Gauge gauge -> values.put(family.name + labels, gauge.get());
+                    case Histogram histogram -> {
+                        values.put(family.name + "_count" + labels, (double) histogram.getCount());
+                        values.put(family.name + "_sum" + labels, histogram.getSum());
+                    }
+                    default -> throw new IllegalStateException("Unknown metric " + metric);
+                }
+            });
+        }
+        return values;
+    }
+
+    private static Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type.text);
+        }
+        return family;
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value)
+                ? Long.toString((long) value)
+                : Double.toString(value);
+    }
+
+    private static String withLabel(String labels, String key, String value) {
+        String pair = key + "=\"" + value + "\"";
+        return labels.isEmpty() ? "{" + pair + "}" : labels.substring(0, labels.length() - 1) + "," + pair + "}";
+    }
+
+    /**
+     * Renders label pairs as {key="value",...}, or the empty string without labels.
+     */
+    private static String labelText(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be key/value pairs");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(labels[i]).append("=\"").append(escapeLabel(labels[i + 1])).append('"');
+        }
+        return text.append('}').toString();
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private enum Type {
+        COUNTER("counter"),
+        GAUGE("gauge"),
+        HISTOGRAM("histogram");
+
+        final String text;
+
+        Type(String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * All series sharing a metric name, keyed by their rendered labels.
+     */
+    private static class Family {
+        final String name;
+        final String help;
+        final Type type;
+        final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        @SuppressWarnings("unchecked")
+        <M> M get(String[] labels, Function<String, M> factory) {
+            return (M) series.computeIfAbsent(labelText(labels), factory::apply);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.frankosn.apod.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the application metrics, registered as {@value Metrics#OBJECT_NAME}.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Current value of every counter and gauge, plus count and sum of every histogram,
+     * keyed by series name with labels.
+     */
+    Map<String, Double> getValues();
+
+    /**
+     * All metrics in the Prometheus text exposition format.
+     */
+    String getPrometheusText();
+}
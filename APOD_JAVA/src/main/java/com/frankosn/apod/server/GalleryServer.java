@@ -0,0 +1,516 @@
+package com.frankosn.apod.server;
+
+import com.frankosn.apod.metrics.Counter;
+import com.frankosn.apod.metrics.Metrics;
+import com.frankosn.apod.storage.ApodCatalog;
+import com.frankosn.apod.storage.ApodStorage;
+import com.frankosn.apod.storage.ImageLayout;
+import com.frankosn.apod.storage.PackStore;
+import com.frankosn.apod.storage.SearchIndex;
+import com.frankosn.apod.storage.ThumbnailService;
+import com.frankosn.apod.util.DateUtil;
+import com.frankosn.apod.util.FileManager;
+import com.google.gson.Gson;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only HTTP server for an images directory, handling each request on a virtual thread.
+ * <ul>
+ *   <li>{@code GET /api/apods} lists catalog entries as JSON, newest first, filtered by
+ *       {@code start}/{@code end} dates or ranked by a {@code q} search query, paged with
+ *       {@code offset}/{@code limit}</li>
+ *   <li>{@code GET /api/apods/{date}} returns one entry including its explanation</li>
+ *   <li>{@code GET /images/{file}} and {@code GET /thumbs/{file}} stream files with
+ *       {@link FileChannel#transferTo}, or packed images from their mapped pack, honouring
+ *       ETag/Last-Modified validators and single byte ranges</li>
+ * </ul>
+ */
+public class GalleryServer implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(GalleryServer.class);
+    private static final Gson gson = new Gson();
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+            "jpg", "image/jpeg", "jpeg", "image/jpeg", "png", "image/png", "gif", "image/gif",
+            "webp", "image/webp", "bmp", "image/bmp", "svg", "image/svg+xml", "tif", "image/tiff",
+            "tiff", "image/tiff");
+    private static final String LATENCY = "apod_gallery_request_duration_seconds";
+    private static final String LATENCY_HELP = "Time to serve one gallery request";
+    private static final long[] UNSATISFIABLE = new long[0];
+    private static final Counter bytesServed = Metrics.counter("apod_gallery_bytes_total",
+            "File bytes sent by the gallery server");
+
+    private final HttpServer server;
+    private final String imagesDir;
+    private final Path directory;
+    private final int maxAgeSeconds;
+
+    private GalleryServer(HttpServer server, String imagesDir, int maxAgeSeconds) {
+        this.server = server;
+        this.imagesDir = imagesDir;
+        this.directory = Paths.get(imagesDir).toAbsolutePath().normalize();
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    /**
+     * Starts serving an images directory on the given address.
+     */
+    public static GalleryServer start(InetSocketAddress address, String imagesDir, int maxAgeSeconds)
+            throws IOException {
+        // Holds the directory's shared lock from the start, not from the first request
+        ImageLayout.forDirectory(imagesDir);
+        HttpServer httpServer = HttpServer.create(address, 1024);
+        GalleryServer gallery = new GalleryServer(httpServer, imagesDir, maxAgeSeconds);
+        httpServer.createContext("/", exchange -> gallery.handle(exchange, "page", gallery::servePage));
+        httpServer.createContext("/api/apods", exchange -> gallery.handle(exchange, "api", gallery::serveApi));
+        httpServer.createContext("/images/", exchange -> gallery.handle(exchange, "image", gallery::serveImage));
+        httpServer.createContext("/thumbs/", exchange -> gallery.handle(exchange, "thumbnail", gallery::serveThumbnail));
+        httpServer.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        httpServer.start();
+        logger.info("Serving {} at http://{}:{}/", gallery.directory, address.getHostString(), gallery.getPort());
+        return gallery;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private interface Route {
+        void serve(HttpExchange exchange) throws IOException;
+    }
+
+    private interface Body {
+        void transfer(long start, long length, WritableByteChannel target) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, String route, Route handler) throws IOException {
+        long started = System.nanoTime();
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            handler.serve(exchange);
+        } catch (IOException e) {
+            // Mostly clients going away mid-transfer
+            logger.debug("Gallery request {} failed: {}", exchange.getRequestURI(), e.getMessage());
+        } catch (RuntimeException e) {
+            logger.warn("Gallery request " + exchange.getRequestURI() + " failed", e);
+            try {
+                exchange.sendResponseHeaders(500, -1);
+            } catch (IOException | IllegalStateException ignored) {
+                // Headers already sent
+            }
+        } finally {
+            Metrics.latency(LATENCY, LATENCY_HELP, "route", route).observeSince(started);
+        }
+    }
+
+    private void servePage(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (!"/".equals(path) && !"/index.html".equals(path)) {
+            sendError(exchange, 404, "Not found");
+            return;
+        }
+        try (InputStream page = GalleryServer.class.getResourceAsStream("/gallery.html")) {
+            if (page == null) {
+                sendError(exchange, 404, "Not found");
+                return;
+            }
+            sendBytes(exchange, 200, "text/html; charset=utf-8", "no-cache", page.readAllBytes());
+        }
+    }
+
+    private void serveApi(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        ApodCatalog catalog = ApodCatalog.forDirectory(imagesDir);
+
+        if (path.startsWith("/api/apods/")) {
+            ApodStorage.ApodMetadataFile metadata = catalog.get(path.substring("/api/apods/".length()));
+            if (metadata == null) {
+                sendError(exchange, 404, "Unknown date");
+                return;
+            }
+            Map<String, Object> item = item(metadata);
+            item.put("explanation", metadata.explanation);
+            sendJson(exchange, item);
+            return;
+        }
+        if (!"/api/apods".equals(path)) {
+            sendError(exchange, 404, "Not found");
+            return;
+        }
+
+        Map<String, String> query = queryParameters(exchange.getRequestURI());
+        int offset;
+        int limit;
+        try {
+            offset = Math.max(0, Integer.parseInt(query.getOrDefault("offset", "0")));
+            limit = Math.min(MAX_PAGE_SIZE, Math.max(1, Integer.parseInt(
+                    query.getOrDefault("limit", String.valueOf(DEFAULT_PAGE_SIZE)))));
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "offset and limit must be integers");
+            return;
+        }
+        String start = query.get("start");
+        String end = query.get("end");
+        if ((start != null && !DateUtil.isValidDate(start)) || (end != null && !DateUtil.isValidDate(end))) {
+            sendError(exchange, 400, "start and end must be dates in YYYY-MM-DD format");
+            return;
+        }
+
+        List<ApodStorage.ApodMetadataFile> matches = new ArrayList<>();
+        String q = query.get("q");
+        if (q != null && !q.isBlank()) {
+            for (SearchIndex.Hit hit : SearchIndex.forDirectory(imagesDir).search(q, Integer.MAX_VALUE)) {
+                ApodStorage.ApodMetadataFile metadata = catalog.get(hit.date());
+                if (metadata != null && inRange(metadata.date, start, end)) {
+                    matches.add(metadata);
+                }
+            }
+        } else {
+            List<ApodStorage.ApodMetadataFile> entries = catalog.entries();
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                if (inRange(entries.get(i).date, start, end)) {
+                    matches.add(entries.get(i));
+                }
+            }
+        }
+
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int i = offset; i < Math.min(matches.size(), offset + limit); i++) {
+            items.add(item(matches.get(i)));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("total", matches.size());
+        body.put("offset", offset);
+        body.put("items", items);
+        sendJson(exchange, body);
+    }
+
+    private void serveImage(HttpExchange exchange) throws IOException {
+        String filename = resolveImage(exchange, "/images/");
+        if (filename == null) {
+            sendError(exchange, 404, "Not found");
+            return;
+        }
+        String cacheControl = "public, max-age=" + maxAgeSeconds;
+        PackStore.Located packed = Files.isRegularFile(directory.resolve(filename)) ? null
+                : ImageLayout.forDirectory(imagesDir).packs().find(filename);
+        if (packed == null) {
+            sendFile(exchange, directory.resolve(filename), cacheControl);
+            return;
+        }
+        ByteBuffer bytes = packed.pack().read(packed.entry());
+        sendContent(exchange, filename, packed.entry().length(), packed.entry().modified(), cacheControl,
+                (start, length, target) -> {
+                    ByteBuffer range = bytes.slice((int) start, (int) length);
+                    while (range.hasRemaining()) {
+                        target.write(range);
+                    }
+                });
+    }
+
+    private void serveThumbnail(HttpExchange exchange) throws IOException {
+        String source = resolveImage(exchange, "/thumbs/");
+        Path thumbnail = source == null ? null
+                : ThumbnailService.forDirectory(imagesDir).findThumbnail(source);
+        if (thumbnail == null) {
+            sendError(exchange, 404, "Not found");
+            return;
+        }
+        // Thumbnails are named by the source hash, but the URL is named by the source file
+        sendFile(exchange, thumbnail, "public, max-age=" + maxAgeSeconds);
+    }
+
+    /**
+     * Maps a request path to the name of an image inside the images directory, loose, in a
+     * yyyy/MM shard or packed, or returns null.
+     */
+    private String resolveImage(HttpExchange exchange, String prefix) {
+        String filename = exchange.getRequestURI().getPath().substring(prefix.length());
+        if (filename.isEmpty() || filename.contains("\\") || filename.contains("//")
+                || filename.contains("..") || !FileManager.isImageFilename(filename)) {
+            return null;
+        }
+        Path file = directory.resolve(filename).normalize();
+        if (!file.startsWith(directory)) {
+            return null;
+        }
+        return Files.isRegularFile(file) || ImageLayout.forDirectory(imagesDir).packs().find(filename) != null
+                ? filename : null;
+    }
+
+    /**
+     * Sends a file or one byte range of it, or 304 when the client's copy is current.
+     */
+    private void sendFile(HttpExchange exchange, Path file, String cacheControl) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        sendContent(exchange, file.getFileName().toString(), attributes.size(),
+                attributes.lastModifiedTime().toMillis(), cacheControl, (start, length, target) -> {
+                    try (FileChannel channel = FileChannel.open(file)) {
+                        long position = start;
+                        long remaining = length;
+                        while (remaining > 0) {
+                            long sent = channel.transferTo(position, remaining, target);
+                            if (sent <= 0) {
+                                throw new IOException("File shrank while being served: " + file);
+                            }
+                            position += sent;
+                            remaining -= sent;
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Sends content of the given size and modification time, or one byte range of it, or
+     * 304 when the client's copy is current.
+     */
+    private void sendContent(HttpExchange exchange, String filename, long size, long modifiedMillis,
+                             String cacheControl, Body body) throws IOException {
+        long modifiedSeconds = modifiedMillis / 1000;
+        String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modifiedMillis) + "\"";
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochSecond(modifiedSeconds).atZone(ZoneOffset.UTC));
+
+        Headers request = exchange.getRequestHeaders();
+        Headers response = exchange.getResponseHeaders();
+        response.set("ETag", etag);
+        response.set("Last-Modified", lastModified);
+        response.set("Cache-Control", cacheControl);
+        response.set("Accept-Ranges", "bytes");
+
+        if (notModified(request, etag, modifiedSeconds)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        long start = 0;
+        long length = size;
+        int status = 200;
+        String range = request.getFirst("Range");
+        String ifRange = request.getFirst("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag) || ifRange.equals(lastModified))) {
+            long[] bounds = parseRange(range, size);
+            if (bounds == UNSATISFIABLE) {
+                response.set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                length = bounds[1] - bounds[0] + 1;
+                status = 206;
+                response.set("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+            }
+        }
+
+        response.set("Content-Type", contentType(filename));
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            response.set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        if (length == 0) {
+            return;
+        }
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            body.transfer(start, length, Channels.newChannel(out));
+        }
+        bytesServed.add(length);
+    }
+
+    /**
+     * Parses a single-range "bytes=" header into inclusive bounds. Returns null to serve the
+     * whole file (absent, malformed or multi-range headers) and {@link #UNSATISFIABLE} when
+     * the range lies outside the file.
+     */
+    static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).strip();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).strip();
+            String last = spec.substring(dash + 1).strip();
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[]{Math.max(0, size - suffix), size - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (end < start) {
+                return null;
+            }
+            return start >= size ? UNSATISFIABLE : new long[]{start, Math.min(end, size - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Evaluates If-None-Match, or If-Modified-Since when no entity tags were sent.
+     */
+    private static boolean notModified(Headers request, String etag, long modifiedSeconds) {
+        if (request.containsKey("If-None-Match")) {
+            return matchesEtag(request, etag);
+        }
+        String ifModifiedSince = request.getFirst("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                ZonedDateTime since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return modifiedSeconds <= since.toEpochSecond();
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesEtag(Headers request, String etag) {
+        String ifNoneMatch = request.getFirst("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.strip();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Map<String, Object> item(ApodStorage.ApodMetadataFile metadata) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("date", metadata.date);
+        item.put("title", metadata.title);
+        item.put("media_type", metadata.media_type);
+        String path = metadata.image_path == null || metadata.date == null ? null
+                : ImageLayout.forDirectory(imagesDir).locate(metadata.date,
+                        Paths.get(metadata.image_path).getFileName().toString());
+        if (path != null) {
+            item.put("image", "/images/" + path);
+            item.put("thumbnail", "/thumbs/" + path);
+        }
+        item.put("url", metadata.url);
+        item.put("hdurl", metadata.hdurl);
+        return item;
+    }
+
+    private static boolean inRange(String date, String start, String end) {
+        return date != null && (start == null || date.compareTo(start) >= 0) && (end == null || date.compareTo(end) <= 0);
+    }
+
+    private static Map<String, String> queryParameters(URI uri) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            parameters.putIfAbsent(name, value);
+        }
+        return parameters;
+    }
+
+    private static String contentType(String filename) {
+        int dot = filename.lastIndexOf('.');
+        String extension = dot < 0 ? "" : filename.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return CONTENT_TYPES.getOrDefault(extension, "application/octet-stream");
+    }
+
+    /**
+     * Sends a JSON body with an ETag derived from its content, so unchanged listings are
+     * answered with 304.
+     */
+    private static void sendJson(HttpExchange exchange, Object body) throws IOException {
+        byte[] bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(bytes.length) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (matchesEtag(exchange.getRequestHeaders(), etag)) {
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        sendBytes(exchange, 200, "application/json; charset=utf-8", "no-cache", bytes);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        Map<String, Object> body = Map.of("error", message);
+        sendBytes(exchange, status, "application/json; charset=utf-8", "no-store",
+                gson.toJson(body).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendBytes(HttpExchange exchange, int status, String contentType, String cacheControl,
+                                  byte[] body) throws IOException {
+        Headers response = exchange.getResponseHeaders();
+        response.set("Content-Type", contentType);
+        response.set("Cache-Control", cacheControl);
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            response.set("Content-Length", String.valueOf(body.length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.frankosn.apod.service;
+
+import com.frankosn.apod.model.ApodData;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory LRU cache of APOD entries keyed by date. Recent dates expire quickly
+ * because today's entry can still be published or corrected; older dates never change
+ * and are kept much longer.
+ */
+public class ApodCache {
+
+    private final int capacity;
+    private final Duration recentTtl;
+    private final Duration pastTtl;
+    private final LinkedHashMap<String, CachedEntry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ApodCache(int capacity, Duration recentTtl, Duration pastTtl) {
+        this.capacity = capacity;
+        this.recentTtl = recentTtl;
+        this.pastTtl = pastTtl;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedEntry> eldest) {
+                return size() > ApodCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached entry for a date, or null when absent or expired.
+     */
+    public synchronized ApodData get(String date) {
+        CachedEntry entry = entries.get(date);
+        if (entry == null || entry.expiresAtNanos < System.nanoTime()) {
+            if (entry != null) {
+                entries.remove(date);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.data;
+    }
+
+    /**
+     * Returns the cached entry without touching the hit/miss counters.
+     */
+    public synchronized ApodData peek(String date) {
+        CachedEntry entry = entries.get(date);
+        return entry == null || entry.expiresAtNanos < System.nanoTime() ? null : entry.data;
+    }
+
+    /**
+     * Caches an entry using the TTL that matches its date.
+     */
+    public synchronized void put(ApodData data) {
+        if (data == null || data.getDate() == null) {
+            return;
+        }
+        Duration ttl = isRecent(data.getDate()) ? recentTtl : pastTtl;
+        entries.put(data.getDate(), new CachedEntry(data, System.nanoTime() + ttl.toNanos()));
+    }
+
+    /**
+     * Counts a lookup made with {@link #peek}, once the caller knows whether it was served
+     * from the cache.
+     */
+    public void recordLookup(boolean hit) {
+        (hit ? hits : misses).incrementAndGet();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Whether a date (YYYY-MM-DD) is recent enough that its entry may still change.
+     * Yesterday counts as recent because NASA's "today" runs behind most time zones.
+     */
+    static boolean isRecent(String date) {
+        try {
+            return !LocalDate.parse(date).isBefore(LocalDate.now().minusDays(1));
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+
+    private record CachedEntry(ApodData data, long expiresAtNanos) {
+    }
+}
@@ -1,52 +1,368 @@
 package com.frankosn.apod.service;
 
 import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.http.HttpClients;
+import com.frankosn.apod.http.HttpStatusException;
+import com.frankosn.apod.http.MetricsInterceptor;
+import com.frankosn.apod.http.RateLimiter;
+import com.frankosn.apod.http.RetryPolicy;
+import com.frankosn.apod.metrics.Counter;
+import com.frankosn.apod.metrics.Metrics;
 import com.frankosn.apod.model.ApodData;
+import com.frankosn.apod.util.DateUtil;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Service for fetching APOD data from NASA API.
+ * <p>
+ * Single dates are fetched asynchronously through instances ({@link #fetch(String)}), on
+ * OkHttp's dispatcher instead of a blocked caller thread. Lookups of a date that is already
+ * being fetched, on its own or as part of a range chunk, join that request instead of
+ * sending another one, process-wide. The static methods are blocking front ends sharing the
+ * same client, caches and in-flight requests.
  */
 public class ApodService {
 
     private static final Logger logger = LoggerFactory.getLogger(ApodService.class);
-    private static final String BASE_URL = "https://api.nasa.gov/planetary/apod";
-    private static final OkHttpClient client = new OkHttpClient();
+    private static final String BASE_URL = ConfigLoader.getApiBaseUrl();
+    private static final int RECENT_MAX_AGE_SECONDS = 10 * 60;
+    private static final int PAST_MAX_AGE_SECONDS = 30 * 24 * 60 * 60;
+    private static final CacheControl ONLY_IF_CACHED = new CacheControl.Builder().onlyIfCached().build();
+    private static final Cache httpCache = new Cache(
+            new File(ConfigLoader.getCacheDirectory(), "http"),
+            ConfigLoader.getHttpCacheSizeMb() * 1024L * 1024L);
+    private static final RetryPolicy retryPolicy = RetryPolicy.fromConfig();
+    private static final RateLimiter rateLimiter = new RateLimiter(ConfigLoader.getApiRequestsPerHour());
+    private static final OkHttpClient client = HttpClients.shared().newBuilder()
+            .cache(httpCache)
+            .addNetworkInterceptor(rateLimiter)
+            .addNetworkInterceptor(ApodService::applyCachePolicy)
+            .addNetworkInterceptor(new MetricsInterceptor("api"))
+            .build();
+    private static final ApodCache memoryCache = new ApodCache(
+            ConfigLoader.getMemoryCacheEntries(), Duration.ofMinutes(10), Duration.ofHours(24));
     private static final Gson gson = new Gson();
+    private static final TypeAdapter<ApodData> APOD_ADAPTER = gson.getAdapter(ApodData.class);
+    // Dates being fetched, alone or within a range chunk; guarded by its own monitor
+    private static final Map<String, Flight> inFlight = new HashMap<>();
+    private static final Counter coalesced = Metrics.counter("apod_api_coalesced_total",
+            "APOD lookups answered by a request already in flight");
+    private static final ApodService defaultService = new ApodService();
+
+    private final Duration timeout;
 
     /**
-     * Fetches APOD data for a specific date.
+     * Creates a service whose lookups time out after the retry deadline plus one read
+     * timeout, i.e. once retries could no longer succeed.
      */
-    public static ApodData fetchApod(String date) throws Exception {
-        String apiKey = ConfigLoader.getNasaApiKey();
+    public ApodService() {
+        this(Duration.ofSeconds(ConfigLoader.getRetryDeadlineSeconds() + ConfigLoader.getReadTimeoutSeconds()));
+    }
 
-        HttpUrl url = HttpUrl.parse(BASE_URL)
-                .newBuilder()
-                .addQueryParameter("api_key", apiKey)
+    public ApodService(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    static {
+        String cacheRequests = "apod_cache_requests_total";
+        String cacheHelp = "APOD metadata lookups by cache and outcome";
+        Metrics.counter(cacheRequests, cacheHelp, memoryCache::getHits, "cache", "memory", "result", "hit");
+        Metrics.counter(cacheRequests, cacheHelp, memoryCache::getMisses, "cache", "memory", "result", "miss");
+        Metrics.counter(cacheRequests, cacheHelp, httpCache::hitCount, "cache", "disk", "result", "hit");
+        Metrics.counter(cacheRequests, cacheHelp, httpCache::networkCount, "cache", "disk", "result", "miss");
+        Metrics.gauge("apod_rate_limit_tokens", "API requests that can be sent without waiting",
+                rateLimiter::getAvailableTokens);
+    }
+
+    /**
+     * Fetches APOD data for a specific date, serving it from the in-memory cache
+     * or the on-disk HTTP cache when possible. Blocks until {@link #fetch(String)} completes.
+     */
+    public static ApodData fetchApod(String date) throws IOException {
+        CompletableFuture<ApodData> future = defaultService.fetch(date);
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof TimeoutException) {
+                throw new InterruptedIOException("Timed out fetching APOD for " + date);
+            }
+            throw new IOException("Failed to fetch APOD for " + date, e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching APOD for " + date);
+        }
+    }
+
+    /**
+     * Fetches APOD data for a date without blocking. Served from the in-memory cache when
+     * possible; otherwise joins a request for the same date already in flight, or starts one
+     * that is retried according to the retry policy. The future fails with an IOException
+     * (wrapped in a CompletionException) when the API cannot deliver, or with a
+     * TimeoutException after this service's timeout. Cancelling it, or letting it time out,
+     * cancels the HTTP call unless other callers are still waiting for the same date.
+     */
+    public CompletableFuture<ApodData> fetch(String date) {
+        ApodData cached = memoryCache.peek(date);
+        memoryCache.recordLookup(cached != null);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        Flight flight;
+        boolean joined;
+        synchronized (inFlight) {
+            flight = inFlight.get(date);
+            joined = flight != null && !flight.result.isDone();
+            if (!joined) {
+                Flight started = new Flight(fetchFromNetwork(date), true);
+                inFlight.put(date, started);
+                started.result.whenComplete((data, error) -> {
+                    synchronized (inFlight) {
+                        inFlight.remove(date, started);
+                    }
+                });
+                flight = started;
+            }
+            if (flight.cancellable) {
+                flight.waiters++;
+            }
+        }
+        if (joined) {
+            coalesced.inc();
+        }
+        if (!flight.cancellable) {
+            return afterChunk(date, flight);
+        }
+
+        // Each caller gets its own future, so one caller cancelling does not fail the others
+        Flight joinedFlight = flight;
+        CompletableFuture<ApodData> view = flight.result.copy();
+        view.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS).whenComplete((data, error) -> {
+            if (view.isCancelled() || error instanceof TimeoutException) {
+                synchronized (inFlight) {
+                    if (--joinedFlight.waiters == 0) {
+                        joinedFlight.result.cancel(true);
+                    }
+                }
+            }
+        });
+        return view;
+    }
+
+    /**
+     * Waits for a range chunk that covers the date, falling back to a lookup of its own if
+     * the chunk did not contain it. Cancelling the returned future, or letting it time out,
+     * cancels that lookup; the chunk itself serves a download and is never cancelled.
+     */
+    private CompletableFuture<ApodData> afterChunk(String date, Flight chunk) {
+        CompletableFuture<ApodData> view = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<ApodData>> fallback = new AtomicReference<>();
+        chunk.result.whenComplete((data, error) -> {
+            if (view.isDone()) {
+                return;
+            }
+            if (error != null) {
+                view.completeExceptionally(error);
+            } else if (data != null) {
+                view.complete(data);
+            } else {
+                CompletableFuture<ApodData> lookup = fetch(date);
+                fallback.set(lookup);
+                lookup.whenComplete((fetched, lookupError) -> {
+                    if (lookupError != null) {
+                        view.completeExceptionally(lookupError);
+                    } else {
+                        view.complete(fetched);
+                    }
+                });
+                if (view.isDone()) {
+                    lookup.cancel(true);
+                }
+            }
+        });
+        view.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS).whenComplete((data, error) -> {
+            CompletableFuture<ApodData> lookup = fallback.get();
+            if (lookup != null) {
+                lookup.cancel(true);
+            }
+        });
+        return view;
+    }
+
+    public CompletableFuture<ApodData> fetch(LocalDate date) {
+        return fetch(DateUtil.formatDate(date));
+    }
+
+    private static CompletableFuture<ApodData> fetchFromNetwork(String date) {
+        HttpUrl url = apiUrl()
                 .addQueryParameter("date", date)
-                .addQueryParameter("thumbs", "True")
                 .build();
+        return retryPolicy.executeAsync("GET " + url.encodedPath(), RetryPolicy.breakerFor(url),
+                () -> enqueue(url, reader -> {
+                    ApodData data = APOD_ADAPTER.read(reader);
+                    if (data == null) {
+                        throw new IOException("Empty APOD response for " + date);
+                    }
+                    memoryCache.put(data);
+                    logger.debug("Fetched APOD for date {}: {}", date, data);
+                    return data;
+                }));
+    }
 
-        Request request = new Request.Builder()
-                .url(url)
-                .build();
+    /**
+     * Fetches APOD data for every day between start and end (inclusive).
+     * Days without an APOD entry are simply absent from the result.
+     *
+     * @see #streamRange(LocalDate, LocalDate, EntryConsumer)
+     */
+    public static List<ApodData> fetchRange(LocalDate start, LocalDate end) throws Exception {
+        List<ApodData> results = new ArrayList<>();
+        streamRange(start, end, results::add);
+        return results;
+    }
+
+    /**
+     * Streams APOD data for every day between start and end (inclusive) to the consumer
+     * as each entry is decoded, using the start_date/end_date API parameters split into
+     * chunks of at most {@link ConfigLoader#getRangeChunkDays()} days per request.
+     * Responses are parsed straight from the connection, so memory use does not grow
+     * with the range and the consumer sees the first days before the rest has arrived.
+     * Days without an APOD entry are simply skipped; no entry is delivered twice, even
+     * when a request is retried halfway through a response.
+     */
+    public static void streamRange(LocalDate start, LocalDate end, EntryConsumer consumer) throws Exception {
+        if (start.isAfter(end)) {
+            throw new IllegalArgumentException("Start date must be before end date");
+        }
+
+        int chunkDays = ConfigLoader.getRangeChunkDays();
+        LocalDate chunkStart = start;
+        while (!chunkStart.isAfter(end)) {
+            LocalDate chunkEnd = chunkStart.plusDays(chunkDays - 1L);
+            if (chunkEnd.isAfter(end)) {
+                chunkEnd = end;
+            }
+
+            List<ApodData> cached = cachedRange(chunkStart, chunkEnd);
+            int count;
+            if (cached != null) {
+                for (ApodData data : cached) {
+                    consumer.accept(data);
+                }
+                count = cached.size();
+            } else {
+                HttpUrl url = apiUrl()
+                        .addQueryParameter("start_date", DateUtil.formatDate(chunkStart))
+                        .addQueryParameter("end_date", DateUtil.formatDate(chunkEnd))
+                        .build();
+
+                Set<String> delivered = new HashSet<>();
+                Map<String, Flight> announced = announce(chunkStart, chunkEnd);
+                try {
+                    EntryConsumer announcing = data -> {
+                        Flight flight = announced.get(data.getDate());
+                        if (flight != null) {
+                            flight.result.complete(data);
+                        }
+                        consumer.accept(data);
+                    };
+                    execute(url, reader -> {
+                        readEntries(reader, delivered, announcing);
+                        return null;
+                    });
+                } finally {
+                    settle(announced);
+                }
+                count = delivered.size();
+            }
+            logger.debug("Fetched {} APOD entries for {} to {}", count, chunkStart, chunkEnd);
+
+            chunkStart = chunkEnd.plusDays(1);
+        }
+    }
+
+    /**
+     * Fetches APOD data for an arbitrary set of dates, keyed by date.
+     *
+     * @see #streamDates(Collection, EntryConsumer)
+     */
+    public static Map<String, ApodData> fetchDates(Collection<LocalDate> dates) throws Exception {
+        Map<String, ApodData> results = new HashMap<>();
+        streamDates(dates, data -> results.put(data.getDate(), data));
+        return results;
+    }
+
+    /**
+     * Streams APOD data for an arbitrary set of dates, in date order. Dates closer than
+     * one range chunk are merged into the same range request, so scattered gaps in an
+     * archive still cost only a few API calls; entries for dates in between that were not
+     * asked for are dropped.
+     */
+    public static void streamDates(Collection<LocalDate> dates, EntryConsumer consumer) throws Exception {
+        List<LocalDate> sorted = dates.stream().sorted().distinct().toList();
+        if (sorted.isEmpty()) {
+            return;
+        }
 
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new RuntimeException("Failed to fetch APOD: HTTP " + response.code());
+        Set<String> requested = new HashSet<>();
+        for (LocalDate date : sorted) {
+            requested.add(DateUtil.formatDate(date));
+        }
+        EntryConsumer filtered = data -> {
+            if (requested.contains(data.getDate())) {
+                consumer.accept(data);
             }
+        };
 
-            String responseBody = response.body().string();
-            ApodData apodData = gson.fromJson(responseBody, ApodData.class);
-            logger.debug("Fetched APOD for date {}: {}", date, apodData);
-            return apodData;
+        int chunkDays = ConfigLoader.getRangeChunkDays();
+        LocalDate runStart = sorted.get(0);
+        LocalDate runEnd = runStart;
+        for (LocalDate date : sorted.subList(1, sorted.size())) {
+            if (ChronoUnit.DAYS.between(runEnd, date) > chunkDays) {
+                streamRange(runStart, runEnd, filtered);
+                runStart = date;
+            }
+            runEnd = date;
         }
+        streamRange(runStart, runEnd, filtered);
     }
 
     /**
@@ -66,4 +382,283 @@ public class ApodService {
 
         return null;
     }
+
+    /**
+     * Returns hit/miss counters of the in-memory and on-disk caches.
+     */
+    public static CacheStats getCacheStats() {
+        return new CacheStats(memoryCache.getHits(), memoryCache.getMisses(),
+                httpCache.hitCount(), httpCache.networkCount());
+    }
+
+    /**
+     * Registers the dates of a range chunk as in flight, so single-date lookups wait for the
+     * chunk instead of requesting them again. Returns the registrations made by this call.
+     */
+    private static Map<String, Flight> announce(LocalDate start, LocalDate end) {
+        Map<String, Flight> announced = new HashMap<>();
+        synchronized (inFlight) {
+            for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+                String key = DateUtil.formatDate(date);
+                Flight current = inFlight.get(key);
+                if (current == null || current.result.isDone()) {
+                    Flight flight = new Flight(new CompletableFuture<>(), false);
+                    inFlight.put(key, flight);
+                    announced.put(key, flight);
+                }
+            }
+        }
+        return announced;
+    }
+
+    /**
+     * Withdraws a chunk's registrations once it is done. Dates the chunk did not deliver
+     * complete with null, sending their waiting lookups to the network on their own.
+     */
+    private static void settle(Map<String, Flight> announced) {
+        synchronized (inFlight) {
+            announced.forEach((date, flight) -> inFlight.remove(date, flight));
+        }
+        announced.values().forEach(flight -> flight.result.complete(null));
+    }
+
+    /**
+     * Returns the range from the in-memory cache if every day in it is cached, otherwise null.
+     * Only a range served from the cache counts as lookups, one hit per day; otherwise the
+     * days are fetched with the range and never looked up.
+     */
+    private static List<ApodData> cachedRange(LocalDate start, LocalDate end) {
+        List<ApodData> cached = new ArrayList<>();
+        for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+            ApodData data = memoryCache.peek(DateUtil.formatDate(date));
+            if (data == null) {
+                return null;
+            }
+            cached.add(data);
+        }
+        cached.forEach(data -> memoryCache.recordLookup(true));
+        return cached;
+    }
+
+    /**
+     * Network interceptor that makes successful API responses cacheable on disk. The API
+     * does not send useful cache headers, so freshness is derived from the requested dates:
+     * past days never change, recent ones are revalidated after a few minutes.
+     */
+    private static Response applyCachePolicy(Interceptor.Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        if (!response.isSuccessful()) {
+            return response;
+        }
+
+        HttpUrl url = chain.request().url();
+        String lastDate = url.queryParameter("date") != null
+                ? url.queryParameter("date")
+                : url.queryParameter("end_date");
+        int maxAge = lastDate == null || ApodCache.isRecent(lastDate)
+                ? RECENT_MAX_AGE_SECONDS
+                : PAST_MAX_AGE_SECONDS;
+
+        return response.newBuilder()
+                .removeHeader("Pragma")
+                .header("Cache-Control", "public, max-age=" + maxAge)
+                .build();
+    }
+
+    /**
+     * Decodes a range response one element at a time, caching each entry and passing on
+     * those not delivered by an earlier attempt. A lone object is accepted as well.
+     */
+    private static void readEntries(JsonReader reader, Set<String> delivered, EntryConsumer consumer)
+            throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            deliver(APOD_ADAPTER.read(reader), delivered, consumer);
+            return;
+        }
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            deliver(APOD_ADAPTER.read(reader), delivered, consumer);
+        }
+        reader.endArray();
+    }
+
+    private static void deliver(ApodData data, Set<String> delivered, EntryConsumer consumer)
+            throws InterruptedIOException {
+        if (data == null || data.getDate() == null || !delivered.add(data.getDate())) {
+            return;
+        }
+        memoryCache.put(data);
+        try {
+            consumer.accept(data);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while delivering APOD entries");
+        }
+    }
+
+    /**
+     * Builds the base API URL with the parameters shared by every request.
+     */
+    private static HttpUrl.Builder apiUrl() {
+        return HttpUrl.parse(BASE_URL)
+                .newBuilder()
+                .addQueryParameter("api_key", ConfigLoader.getNasaApiKey())
+                .addQueryParameter("thumbs", "True");
+    }
+
+    /**
+     * Returns the rate limiter shared by all API requests.
+     */
+    public static RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Executes a GET request and decodes the JSON response body as it streams in. Transient
+     * failures, including throttled (HTTP 429) requests and responses cut off mid-body, are
+     * retried according to the retry policy while the API host's circuit breaker is closed.
+     * Requests the cache cannot answer wait for a rate limiter token before being sent.
+     */
+    private static <T> T execute(HttpUrl url, BodyReader<T> bodyReader) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .build();
+
+        return retryPolicy.execute("GET " + url.encodedPath(), RetryPolicy.breakerFor(url), () -> {
+            Response cached = cachedResponse(request);
+            if (cached == null) {
+                try {
+                    rateLimiter.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the API rate limit");
+                }
+            }
+            try (Response response = cached != null ? cached : client.newCall(request).execute()) {
+                return readResponse(response, bodyReader);
+            }
+        });
+    }
+
+    /**
+     * Sends a GET request through OkHttp's dispatcher and decodes the response on its
+     * thread. Cancelling the returned future cancels the call. A fresh cached response is
+     * decoded right away; otherwise the call is enqueued once the rate limiter has a token.
+     */
+    private static <T> CompletableFuture<T> enqueue(HttpUrl url, BodyReader<T> bodyReader) throws IOException {
+        Request request = new Request.Builder().url(url).build();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Response cached = cachedResponse(request);
+        if (cached != null) {
+            try (cached) {
+                future.complete(readResponse(cached, bodyReader));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        Call call = client.newCall(request);
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        enqueueWhenAllowed(call, future, bodyReader);
+        return future;
+    }
+
+    /**
+     * Enqueues a call as soon as the rate limiter allows, waiting on a timer rather than on
+     * a dispatcher thread. Nothing is sent if the future completes in the meantime.
+     */
+    private static <T> void enqueueWhenAllowed(Call call, CompletableFuture<T> future, BodyReader<T> bodyReader) {
+        if (future.isDone()) {
+            return;
+        }
+        long wait = rateLimiter.tryAcquire();
+        if (wait > 0) {
+            CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS).execute(() ->
+                    enqueueWhenAllowed(call, future, bodyReader));
+            return;
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call failed, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call succeeded, Response response) {
+                try (response) {
+                    future.complete(readResponse(response, bodyReader));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the response the HTTP cache can serve without the network, or null when the
+     * request has to be sent (or revalidated).
+     */
+    private static Response cachedResponse(Request request) throws IOException {
+        Response response = client.newCall(request.newBuilder().cacheControl(ONLY_IF_CACHED).build()).execute();
+        if (response.cacheResponse() == null) {
+            // OkHttp's "504 Unsatisfiable Request (only-if-cached)"
+            response.close();
+            return null;
+        }
+        return response;
+    }
+
+    private static <T> T readResponse(Response response, BodyReader<T> bodyReader) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new HttpStatusException("Failed to fetch APOD", response.code());
+        }
+        try (JsonReader reader = gson.newJsonReader(response.body().charStream())) {
+            return bodyReader.read(reader);
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Malformed APOD response: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Cache counters: in-memory hits/misses, responses served or revalidated by the
+     * on-disk HTTP cache, and requests that went to the network.
+     */
+    public record CacheStats(long memoryHits, long memoryMisses, long diskHits, long networkRequests) {
+    }
+
+    /**
+     * Receives APOD entries as they are decoded. May block, which holds back reading the
+     * rest of the response.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(ApodData data) throws InterruptedException;
+    }
+
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(JsonReader reader) throws IOException;
+    }
+
+    /**
+     * A date being fetched and the callers waiting for it. Range chunk registrations are not
+     * cancellable, so their waiters are not counted, and complete with null for dates the
+     * chunk did not contain.
+     */
+    private static final class Flight {
+        final CompletableFuture<ApodData> result;
+        final boolean cancellable;
+        int waiters;
+
+        Flight(CompletableFuture<ApodData> result, boolean cancellable) {
+            this.result = result;
+            this.cancellable = cancellable;
+        }
+    }
 }
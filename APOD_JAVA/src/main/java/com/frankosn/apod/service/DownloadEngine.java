@@ -0,0 +1,614 @@
+package com.frankosn.apod.service;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.metrics.Gauge;
+import com.frankosn.apod.metrics.Metrics;
+import com.frankosn.apod.model.ApodData;
+import com.frankosn.apod.storage.ApodStorage;
+import com.frankosn.apod.storage.BlobStore;
+import com.frankosn.apod.storage.DownloadManifest;
+import com.frankosn.apod.storage.ImageLayout;
+import com.frankosn.apod.storage.ThumbnailService;
+import com.frankosn.apod.util.DateUtil;
+import com.frankosn.apod.util.FileManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Downloads a set of dates through a staged pipeline running on virtual threads:
+ * metadata fetchers → bounded queue → image download workers → bounded queue →
+ * metadata writers. Each stage has its own concurrency, and the bounded queues apply
+ * backpressure so the API connection, the image transfers and the disk all stay busy
+ * without any stage running far ahead of the others.
+ */
+public class DownloadEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadEngine.class);
+    private static final ImageTask END_OF_IMAGES = new ImageTask(null, null, 0);
+    private static final WriteTask END_OF_WRITES = new WriteTask(null, null, null, null, 0);
+
+    private final String imagesDir;
+    private final int metadataConcurrency;
+    private final int imageConcurrency;
+    private final int writerConcurrency;
+    private final int queueCapacity;
+    private final DownloadManifest manifest;
+    private final ImageLayout layout;
+    private final BlobStore blobStore;
+    private final ThumbnailService thumbnails;
+    private final Map<String, ReentrantLock> fileLocks = new ConcurrentHashMap<>();
+
+    private volatile PipelineStats lastStats;
+
+    public DownloadEngine(String imagesDir, int metadataConcurrency, int imageConcurrency,
+                          int writerConcurrency, int queueCapacity) throws IOException {
+        if (metadataConcurrency < 1 || imageConcurrency < 1 || writerConcurrency < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Concurrency and queue capacity must be at least 1");
+        }
+        this.imagesDir = imagesDir;
+        this.metadataConcurrency = metadataConcurrency;
+        this.imageConcurrency = imageConcurrency;
+        this.writerConcurrency = writerConcurrency;
+        this.queueCapacity = queueCapacity;
+        this.manifest = DownloadManifest.forDirectory(imagesDir);
+        this.layout = ImageLayout.forDirectory(imagesDir);
+        this.blobStore = ConfigLoader.isContentAddressed() ? new BlobStore(imagesDir, manifest) : null;
+        this.thumbnails = ConfigLoader.isThumbnailOnDownload() ? ThumbnailService.forDirectory(imagesDir) : null;
+    }
+
+    /**
+     * Creates an engine with the stage settings from the configuration.
+     */
+    public static DownloadEngine fromConfig(String imagesDir) throws IOException {
+        return new DownloadEngine(imagesDir,
+                ConfigLoader.getMetadataConcurrency(),
+                ConfigLoader.getDownloadConcurrency(),
+                ConfigLoader.getWriterConcurrency(),
+                ConfigLoader.getPipelineQueueSize());
+    }
+
+    /**
+     * Returns the dates the manifest cannot answer locally, i.e. those that still need the API.
+     */
+    public List<LocalDate> pendingDates(List<LocalDate> dates) {
+        return dates.stream()
+                .filter(date -> !manifest.isComplete(DateUtil.formatDate(date)))
+                .toList();
+    }
+
+    /**
+     * Downloads every date. Dates already complete in the manifest are answered without
+     * network access. Results are passed to the listener in date order as soon as each one
+     * and all earlier dates have completed, and are also returned in the same order.
+     */
+    public List<Result> download(List<LocalDate> dates, Consumer<Result> listener) throws InterruptedException {
+        Map<LocalDate, CompletableFuture<Result>> pending = new HashMap<>();
+        List<CompletableFuture<Result>> ordered = new ArrayList<>(dates.size());
+        for (LocalDate date : dates) {
+            CompletableFuture<Result> future = pending.computeIfAbsent(date, d -> new CompletableFuture<>());
+            ordered.add(future);
+            Result known = fromManifest(DateUtil.formatDate(date));
+            if (known != null) {
+                future.complete(known);
+            }
+        }
+        pending.values().removeIf(CompletableFuture::isDone);
+
+        BlockingQueue<ImageTask> imageQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<WriteTask> writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        QueueGauge imageQueueGauge = new QueueGauge("images", imageQueue);
+        QueueGauge writeQueueGauge = new QueueGauge("writes", writeQueue);
+        StageCounter metadataStage = new StageCounter();
+        StageCounter imageStage = new StageCounter();
+        StageCounter writeStage = new StageCounter();
+        long start = System.nanoTime();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Queue<List<LocalDate>> batches = new ConcurrentLinkedQueue<>(
+                    batchByRange(pending.keySet().stream().sorted().toList()));
+
+            List<Future<?>> fetchers = new ArrayList<>();
+            for (int i = 0; i < metadataConcurrency; i++) {
+                fetchers.add(executor.submit(() -> {
+                    fetchMetadata(batches, pending, imageQueue, imageQueueGauge, metadataStage);
+                    return null;
+                }));
+            }
+            List<Future<?>> downloaders = new ArrayList<>();
+            for (int i = 0; i < imageConcurrency; i++) {
+                downloaders.add(executor.submit(() -> {
+                    downloadImages(imageQueue, writeQueue, pending, writeQueueGauge, imageStage);
+                    return null;
+                }));
+            }
+            List<Future<?>> writers = new ArrayList<>();
+            for (int i = 0; i < writerConcurrency; i++) {
+                writers.add(executor.submit(() -> {
+                    writeMetadata(writeQueue, pending, writeStage);
+                    return null;
+                }));
+            }
+
+            // Shut each stage down once the stage feeding it has drained
+            executor.submit(() -> {
+                awaitAll(fetchers);
+                for (int i = 0; i < imageConcurrency; i++) {
+                    imageQueue.put(END_OF_IMAGES);
+                }
+                awaitAll(downloaders);
+                for (int i = 0; i < writerConcurrency; i++) {
+                    writeQueue.put(END_OF_WRITES);
+                }
+                awaitAll(writers);
+                // Never leave a date unanswered if a stage died unexpectedly
+                pending.forEach((date, future) ->
+                        future.complete(Result.failed(DateUtil.formatDate(date), "Download pipeline stopped")));
+                return null;
+            });
+
+            List<Result> results = new ArrayList<>(ordered.size());
+            for (int i = 0; i < ordered.size(); i++) {
+                Result result;
+                try {
+                    result = ordered.get(i).get();
+                } catch (ExecutionException e) {
+                    result = Result.failed(DateUtil.formatDate(dates.get(i)), e.getCause().getMessage());
+                }
+                results.add(result);
+                listener.accept(result);
+            }
+
+            lastStats = new PipelineStats(System.nanoTime() - start,
+                    metadataStage.snapshot("metadata", metadataConcurrency, null),
+                    imageStage.snapshot("images", imageConcurrency, imageQueueGauge),
+                    writeStage.snapshot("writer", writerConcurrency, writeQueueGauge));
+            logger.info("Pipeline stats: {}", lastStats);
+            return results;
+        } finally {
+            imageQueueGauge.close();
+            writeQueueGauge.close();
+        }
+    }
+
+    /**
+     * Statistics of the most recent {@link #download} run, or null before the first run.
+     */
+    public PipelineStats getLastStats() {
+        return lastStats;
+    }
+
+    /**
+     * Stage 1: streams metadata for batches of dates and hands each image to the download
+     * stage as soon as its entry is decoded, so downloads start before a range response
+     * has been fully received. Entries that do not fit in a full queue are held until the
+     * response is closed, so a slow download stage never keeps a connection waiting.
+     */
+    private void fetchMetadata(Queue<List<LocalDate>> batches, Map<LocalDate, CompletableFuture<Result>> pending,
+                               BlockingQueue<ImageTask> imageQueue, QueueGauge gauge,
+                               StageCounter stage) throws InterruptedException {
+        List<LocalDate> batch;
+        while ((batch = batches.poll()) != null) {
+            long started = System.nanoTime();
+            Set<LocalDate> received = new HashSet<>();
+            List<ImageTask> held = new ArrayList<>();
+            Exception error = null;
+            try {
+                ApodService.streamDates(batch, data -> {
+                    LocalDate date = DateUtil.parseDate(data.getDate());
+                    received.add(date);
+                    if (ApodService.extractImageUrl(data) == null) {
+                        complete(pending, date, noImage(date, data));
+                        return;
+                    }
+                    ImageTask task = new ImageTask(date, data, System.nanoTime());
+                    if (held.isEmpty() && imageQueue.offer(task)) {
+                        gauge.sample(imageQueue.size());
+                    } else {
+                        held.add(task);
+                    }
+                });
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                if (e instanceof InterruptedIOException && Thread.currentThread().isInterrupted()) {
+                    // Shutting down: the interrupt surfaced through the HTTP call
+                    Thread.interrupted();
+                    InterruptedException interrupted = new InterruptedException("Interrupted while fetching metadata");
+                    interrupted.initCause(e);
+                    throw interrupted;
+                }
+                error = e;
+            }
+            for (ImageTask task : held) {
+                imageQueue.put(task);
+                gauge.sample(imageQueue.size());
+            }
+            stage.record(started, batch.size());
+
+            if (error != null) {
+                LocalDate first = batch.get(0);
+                LocalDate last = batch.get(batch.size() - 1);
+                logger.debug("Error fetching metadata for " + first + " to " + last, error);
+                for (LocalDate date : batch) {
+                    if (!received.contains(date)) {
+                        complete(pending, date, failure(DateUtil.formatDate(date), error));
+                    }
+                }
+                continue;
+            }
+
+            // Dates the API had no entry for
+            for (LocalDate date : batch) {
+                if (!received.contains(date)) {
+                    complete(pending, date, missingEntry(date));
+                }
+            }
+        }
+    }
+
+    /**
+     * Stage 2: downloads images and hands the stored files to the writer stage.
+     */
+    private void downloadImages(BlockingQueue<ImageTask> imageQueue, BlockingQueue<WriteTask> writeQueue,
+                                Map<LocalDate, CompletableFuture<Result>> pending, QueueGauge gauge,
+                                StageCounter stage) throws InterruptedException {
+        while (true) {
+            ImageTask task = imageQueue.take();
+            if (task == END_OF_IMAGES) {
+                return;
+            }
+
+            long started = System.nanoTime();
+            String dateStr = DateUtil.formatDate(task.date());
+            String imageUrl = ApodService.extractImageUrl(task.data());
+
+            WriteTask next;
+            try {
+                StoredImage stored = storeImage(dateStr, imageUrl);
+                next = new WriteTask(task.date(), task.data(), stored, imageUrl, task.queuedAt());
+            } catch (Exception e) {
+                complete(pending, task.date(), failure(dateStr, e));
+                continue;
+            } finally {
+                stage.record(started, 1);
+            }
+
+            writeQueue.put(next);
+            gauge.sample(writeQueue.size());
+        }
+    }
+
+    /**
+     * Stage 3: persists metadata and the manifest entry of each stored image.
+     */
+    private void writeMetadata(BlockingQueue<WriteTask> writeQueue, Map<LocalDate, CompletableFuture<Result>> pending,
+                               StageCounter stage) throws InterruptedException {
+        while (true) {
+            WriteTask task = writeQueue.take();
+            if (task == END_OF_WRITES) {
+                return;
+            }
+
+            long started = System.nanoTime();
+            String dateStr = DateUtil.formatDate(task.date());
+            try {
+                StoredImage stored = task.stored();
+                if (stored.downloaded() || blobStore != null) {
+                    ApodStorage.saveMetadata(task.data(), imagesDir, stored.filename());
+                }
+                manifest.recordStored(dateStr, task.data().getMediaType(), stored.filename(), task.imageUrl(),
+                        stored.sha256());
+                complete(pending, task.date(), new Result(dateStr,
+                        stored.downloaded() ? Status.DOWNLOADED : Status.SKIPPED, stored.filename(), null,
+                        stored.downloaded() ? manifest.get(dateStr).size : 0,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - task.queuedAt())));
+            } catch (Exception e) {
+                complete(pending, task.date(), failure(dateStr, e));
+            } finally {
+                stage.record(started, 1);
+            }
+        }
+    }
+
+    /**
+     * Makes the image of a date available in the images directory, downloading it unless
+     * it is already there in either layout. New images are stored according to the
+     * directory's {@link ImageLayout}. With the content-addressed layout enabled the bytes go to the
+     * blob store and the date gets a link to them. A packed copy of a date marked failed is
+     * not trusted, and is replaced by a loose one.
+     */
+    public StoredImage storeImage(String date, String imageUrl) throws IOException {
+        String filename = FileManager.extractFilename(imageUrl, date);
+        String path = layout.pathFor(date, filename);
+
+        // Different dates may share a file name; serialize work on the same path
+        ReentrantLock lock = fileLocks.computeIfAbsent(path, k -> new ReentrantLock());
+        StoredImage stored;
+        lock.lock();
+        try {
+            String existing = layout.locate(date, filename);
+            if (existing != null && layout.isPacked(existing) && isFailed(date)) {
+                existing = null;
+            }
+            if (blobStore != null) {
+                BlobStore.StoredBlob blob = blobStore.store(imageUrl, date, existing != null ? existing : path);
+                stored = new StoredImage(blob.filename(), blob.sha256(), blob.downloaded());
+            } else if (existing != null) {
+                stored = new StoredImage(existing, null, false);
+            } else {
+                Path target = layout.resolve(path);
+                Files.createDirectories(target.getParent());
+                String sha256 = FileManager.downloadFile(imageUrl, target.toString());
+                stored = new StoredImage(path, sha256, true);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (stored.downloaded() && thumbnails != null) {
+            thumbnails.generateAsync(stored.filename(), stored.sha256());
+        }
+        return stored;
+    }
+
+    /**
+     * Returns deduplication statistics, or null when the content-addressed layout is disabled.
+     */
+    public BlobStore.DedupeStats getDedupeStats() throws IOException {
+        return blobStore == null ? null : blobStore.stats(manifest);
+    }
+
+    private boolean isFailed(String date) {
+        DownloadManifest.Entry entry = manifest.get(date);
+        return entry != null && entry.status == DownloadManifest.Status.FAILED;
+    }
+
+    /**
+     * Answers a date from the manifest, or returns null if it still needs the network.
+     */
+    private Result fromManifest(String date) {
+        if (!manifest.isComplete(date)) {
+            return null;
+        }
+        DownloadManifest.Entry entry = manifest.get(date);
+        return entry.status == DownloadManifest.Status.NO_IMAGE
+                ? Result.noImage(date)
+                : new Result(date, Status.SKIPPED, entry.filename, null);
+    }
+
+    /**
+     * Settles an entry without an image URL. Only a media type that is neither an image nor
+     * a video is recorded as permanently without image; an entry that lacks its URL is
+     * recorded as failed, so a later run asks for it again.
+     */
+    private Result noImage(LocalDate date, ApodData data) {
+        String dateStr = DateUtil.formatDate(date);
+        String mediaType = data.getMediaType();
+        if (mediaType == null || "image".equalsIgnoreCase(mediaType) || "video".equalsIgnoreCase(mediaType)) {
+            String kind = mediaType != null ? mediaType : "media";
+            return failure(dateStr, new IOException("Entry has no " + kind + " URL"));
+        }
+        try {
+            manifest.record(new DownloadManifest.Entry(dateStr, DownloadManifest.Status.NO_IMAGE, null, null, 0));
+        } catch (IOException e) {
+            logger.warn("Could not record {} in manifest: {}", dateStr, e.getMessage());
+        }
+        return Result.noImage(dateStr);
+    }
+
+    /**
+     * Settles a date the API returned no entry for. Today's entry may simply not be
+     * published yet; for a past date the response was incomplete, so it is recorded as
+     * failed and retried.
+     */
+    private Result missingEntry(LocalDate date) {
+        String dateStr = DateUtil.formatDate(date);
+        if (!date.isBefore(LocalDate.now())) {
+            return Result.noImage(dateStr);
+        }
+        return failure(dateStr, new IOException("No entry returned for " + dateStr));
+    }
+
+    private Result failure(String date, Exception cause) {
+        logger.debug("Error downloading APOD for date " + date, cause);
+        try {
+            manifest.record(new DownloadManifest.Entry(date, DownloadManifest.Status.FAILED, null, null, 0));
+        } catch (IOException e) {
+            logger.warn("Could not record failure for {} in manifest: {}", date, e.getMessage());
+        }
+        return Result.failed(date, cause.getMessage());
+    }
+
+    private static void complete(Map<LocalDate, CompletableFuture<Result>> pending, LocalDate date, Result result) {
+        pending.get(date).complete(result);
+    }
+
+    /**
+     * Splits sorted dates into batches that each fit in a single range request.
+     */
+    private static List<List<LocalDate>> batchByRange(List<LocalDate> sortedDates) {
+        int chunkDays = ConfigLoader.getRangeChunkDays();
+        List<List<LocalDate>> batches = new ArrayList<>();
+        List<LocalDate> current = new ArrayList<>();
+        for (LocalDate date : sortedDates) {
+            if (!current.isEmpty() && ChronoUnit.DAYS.between(current.get(0), date) >= chunkDays) {
+                batches.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(date);
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws InterruptedException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                logger.error("Pipeline stage failed", e.getCause());
+            }
+        }
+    }
+
+    private record ImageTask(LocalDate date, ApodData data, long queuedAt) {
+    }
+
+    private record WriteTask(LocalDate date, ApodData data, StoredImage stored, String imageUrl, long queuedAt) {
+    }
+
+    /**
+     * An image available in the images directory: the entry name, its SHA-256 when known,
+     * and whether it was downloaded (as opposed to already present).
+     */
+    public record StoredImage(String filename, String sha256, boolean downloaded) {
+    }
+
+    /**
+     * Tracks the depth of a queue each time an item is added to it.
+     */
+    private static class QueueGauge {
+        private final AtomicLong samples = new AtomicLong();
+        private final AtomicLong depthSum = new AtomicLong();
+        private final AtomicLong maxDepth = new AtomicLong();
+        private final Gauge live;
+
+        /**
+         * Also exports the live depth of the queue while the run lasts.
+         */
+        QueueGauge(String name, BlockingQueue<?> queue) {
+            live = Metrics.gauge("apod_pipeline_queue_depth", "Items waiting between download pipeline stages",
+                    "queue", name);
+            live.track(queue::size);
+        }
+
+        void sample(int depth) {
+            samples.incrementAndGet();
+            depthSum.addAndGet(depth);
+            maxDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        void close() {
+            live.set(0);
+        }
+    }
+
+    /**
+     * Counts the items and busy time of a stage.
+     */
+    private static class StageCounter {
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        void record(long startedNanos, int itemCount) {
+            items.addAndGet(itemCount);
+            busyNanos.addAndGet(System.nanoTime() - startedNanos);
+        }
+
+        StageStats snapshot(String name, int workers, QueueGauge inputQueue) {
+            long samples = inputQueue == null ? 0 : inputQueue.samples.get();
+            double meanDepth = samples == 0 ? 0 : (double) inputQueue.depthSum.get() / samples;
+            long maxDepth = inputQueue == null ? 0 : inputQueue.maxDepth.get();
+            return new StageStats(name, workers, items.get(), TimeUnit.NANOSECONDS.toMillis(busyNanos.get()),
+                    meanDepth, maxDepth);
+        }
+    }
+
+    /**
+     * Per-stage statistics. A stage whose input queue stays near capacity is the bottleneck;
+     * one whose input queue stays empty is starved by the stage before it.
+     */
+    public record StageStats(String name, int workers, long items, long busyMillis,
+                             double meanQueueDepth, long maxQueueDepth) {
+        @Override
+        public String toString() {
+            return String.format("%s[workers=%d, items=%d, busy=%d ms, queue mean=%.1f max=%d]",
+                    name, workers, items, busyMillis, meanQueueDepth, maxQueueDepth);
+        }
+    }
+
+    /**
+     * Statistics of one pipeline run.
+     */
+    public record PipelineStats(long elapsedNanos, StageStats metadata, StageStats images, StageStats writer) {
+        @Override
+        public String toString() {
+            return String.format("elapsed=%d ms, %s, %s, %s",
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), metadata, images, writer);
+        }
+    }
+
+    /**
+     * Outcome of a single date.
+     */
+    public enum Status {
+        DOWNLOADED,
+        SKIPPED,
+        NO_IMAGE,
+        FAILED
+    }
+
+    /**
+     * Per-date download result. Bytes are those written by this run, and millis the time
+     * from the date's metadata arriving to its image and metadata being stored.
+     */
+    public record Result(String date, Status status, String filename, String message, long bytes, long millis) {
+
+        Result(String date, Status status, String filename, String message) {
+            this(date, status, filename, message, 0, 0);
+        }
+
+        static Result failed(String date, String message) {
+            return new Result(date, Status.FAILED, null, message);
+        }
+
+        static Result noImage(String date) {
+            return new Result(date, Status.NO_IMAGE, null, "No image found");
+        }
+
+        /**
+         * Whether the image is available locally after this run.
+         */
+        public boolean isSuccess() {
+            return status == Status.DOWNLOADED || status == Status.SKIPPED;
+        }
+
+        /**
+         * Formats the result as a CLI progress line.
+         */
+        public String toDisplayLine() {
+            return isSuccess()
+                    ? "  ✓ " + date + ": " + filename
+                    : "  ✗ " + date + ": " + message;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.frankosn.apod.service;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.http.RateLimiter;
+import com.frankosn.apod.metrics.Metrics;
+import com.frankosn.apod.storage.CoverageMap;
+import com.frankosn.apod.storage.DownloadManifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps an archive converging to the complete APOD history. Each cycle fetches the newest
+ * days, then retries a batch of missing or failed days, using only the part of the hourly
+ * API budget left after a reserve for interactive use. Dates that keep failing are retried
+ * with exponential backoff so they do not eat the budget of every cycle.
+ */
+public class SyncDaemon implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncDaemon.class);
+    // Days before today fetched every cycle, since "today" differs between time zones
+    private static final int RECENT_DAYS = 1;
+    private static final double RESERVED_BUDGET = 0.2;
+    private static final Duration MAX_BACKOFF = Duration.ofDays(1);
+    // How often coverage is rebuilt from the manifest, so deleted files show up as gaps again
+    private static final Duration RESCAN_INTERVAL = Duration.ofDays(1);
+
+    private final DownloadEngine engine;
+    private final DownloadManifest manifest;
+    private final Duration interval;
+    private final int batchDays;
+    private final Map<LocalDate, Backoff> backoffs = new HashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "apod-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile CoverageMap coverage;
+    private long scannedAtNanos;
+
+    public SyncDaemon(String imagesDir, DownloadEngine engine, Duration interval, int batchDays) throws IOException {
+        this.engine = engine;
+        this.manifest = DownloadManifest.forDirectory(imagesDir);
+        this.interval = interval;
+        this.batchDays = batchDays;
+        this.coverage = CoverageMap.fromManifest(manifest, LocalDate.now());
+        this.scannedAtNanos = System.nanoTime();
+        Metrics.gauge("apod_archive_coverage_ratio", "Share of APOD days archived locally",
+                () -> coverage.percent() / 100);
+        Metrics.gauge("apod_archive_missing_days", "APOD days not archived locally",
+                () -> coverage.totalDays() - coverage.coveredDays());
+    }
+
+    /**
+     * Creates a daemon with the interval and batch size from the configuration.
+     */
+    public static SyncDaemon fromConfig(String imagesDir) throws IOException {
+        return new SyncDaemon(imagesDir, DownloadEngine.fromConfig(imagesDir),
+                Duration.ofMinutes(ConfigLoader.getSyncIntervalMinutes()), ConfigLoader.getSyncBatchDays());
+    }
+
+    /**
+     * Runs a cycle now and then every interval until closed. Cycle failures are logged and
+     * the next cycle runs as scheduled.
+     */
+    public void start(Consumer<CycleReport> listener) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                listener.accept(runCycle());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.error("Sync cycle failed", e);
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs one sync cycle: the newest days first, then as many gaps as the budget allows.
+     */
+    public CycleReport runCycle() throws InterruptedException {
+        LocalDate today = LocalDate.now();
+        long started = System.nanoTime();
+        // Kept up to date by the downloads in between, which saves checking every file
+        if (started - scannedAtNanos >= RESCAN_INTERVAL.toNanos()) {
+            coverage = CoverageMap.fromManifest(manifest, today);
+            scannedAtNanos = started;
+        } else {
+            coverage.extendTo(today);
+        }
+
+        List<LocalDate> recent = new ArrayList<>();
+        for (LocalDate date = today.minusDays(RECENT_DAYS); !date.isAfter(today); date = date.plusDays(1)) {
+            if (!coverage.isCovered(date)) {
+                recent.add(date);
+            }
+        }
+        // Fetched one by one: a range ending on a day not yet published fails as a whole
+        int[] counts = new int[2];
+        for (LocalDate date : recent) {
+            download(List.of(date), counts);
+        }
+
+        List<LocalDate> gaps = selectGaps(today.minusDays(RECENT_DAYS));
+        download(gaps, counts);
+
+        synchronized (backoffs) {
+            backoffs.keySet().removeIf(coverage::isCovered);
+        }
+        CycleReport report = new CycleReport(recent.size() + gaps.size(), counts[0], counts[1],
+                coverage.totalDays() - coverage.coveredDays(), coverage.percent(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        logger.info("Sync cycle: {}; coverage {}", report, coverage);
+        return report;
+    }
+
+    /**
+     * Returns the current coverage of the archive.
+     */
+    public CoverageMap getCoverage() {
+        return coverage;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Picks the missing days older than the recent window that are due for an attempt,
+     * newest first, as long as their estimated API calls fit in the spare budget.
+     */
+    private List<LocalDate> selectGaps(LocalDate before) {
+        RateLimiter limiter = ApodService.getRateLimiter();
+        double budget = limiter.getAvailableTokens() - limiter.getLimit() * RESERVED_BUDGET;
+        int chunkDays = ConfigLoader.getRangeChunkDays();
+        long now = System.nanoTime();
+
+        List<LocalDate> selected = new ArrayList<>();
+        int calls = 0;
+        LocalDate runStart = null;
+        synchronized (backoffs) {
+            for (LocalDate date : coverage.missing()) {
+                if (!date.isBefore(before) || (backoffs.containsKey(date) && !backoffs.get(date).isDue(now))) {
+                    continue;
+                }
+                // Mirrors ApodService.streamDates: days within one chunk share a range request
+                boolean newRequest = runStart == null || ChronoUnit.DAYS.between(date, runStart) > chunkDays;
+                if (newRequest && calls + 1 > budget) {
+                    break;
+                }
+                if (newRequest) {
+                    calls++;
+                    runStart = date;
+                }
+                selected.add(date);
+                if (selected.size() >= batchDays) {
+                    break;
+                }
+            }
+        }
+        if (!selected.isEmpty()) {
+            logger.info("Retrying {} missing day(s) with about {} API request(s)", selected.size(), calls);
+        }
+        return selected;
+    }
+
+    private void download(List<LocalDate> dates, int[] counts) throws InterruptedException {
+        if (dates.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (DownloadEngine.Result result : engine.download(dates, r -> { })) {
+            LocalDate date = LocalDate.parse(result.date());
+            if (result.status() == DownloadEngine.Status.FAILED) {
+                counts[1]++;
+                synchronized (backoffs) {
+                    backoffs.merge(date, new Backoff(1, now + interval.toNanos()),
+                            (old, ignored) -> old.next(now, interval));
+                }
+            } else {
+                counts[0]++;
+                // Today's entry may not be published yet: answered, but nothing recorded
+                coverage.set(date, manifest.isComplete(result.date()));
+            }
+        }
+    }
+
+    /**
+     * Retry schedule of a day that failed: the wait doubles with each failure, up to a day.
+     */
+    private record Backoff(int failures, long nextAttemptNanos) {
+
+        boolean isDue(long now) {
+            return now - nextAttemptNanos >= 0;
+        }
+
+        Backoff next(long now, Duration interval) {
+            long wait = Math.min(MAX_BACKOFF.toNanos(), interval.toNanos() << Math.min(failures, 20));
+            return new Backoff(failures + 1, now + wait);
+        }
+    }
+
+    /**
+     * Outcome of one sync cycle.
+     */
+    public record CycleReport(int attempted, int archived, int failed, int missingDays, double coveragePercent,
+                              long millis) {
+
+        @Override
+        public String toString() {
+            return String.format("%d attempted, %d archived, %d failed, %d missing (%.2f%% covered) in %d ms",
+                    attempted, archived, failed, missingDays, coveragePercent, millis);
+        }
+    }
+}
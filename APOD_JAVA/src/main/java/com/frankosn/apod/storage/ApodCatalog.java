@@ -0,0 +1,192 @@
+package com.frankosn.apod.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Single-file metadata catalog for an images directory.
+ * Entries are stored as one compact JSON record per line in {@value #CATALOG_FILE},
+ * keyed by APOD date. New entries are appended; when a date is written more than once
+ * the last record wins. The whole file is read once per process and served from memory.
+ */
+public class ApodCatalog {
+
+    public static final String CATALOG_FILE = "catalog.ndjson";
+
+    private static final Logger logger = LoggerFactory.getLogger(ApodCatalog.class);
+    private static final Gson gson = new Gson();
+    private static final Map<Path, ApodCatalog> catalogs = new ConcurrentHashMap<>();
+    private static final Pattern SHARD_PATH = Pattern.compile("(?:^|/)(\\d{4}/\\d{2}/[^/]+)$");
+
+    private final Path directory;
+    private final JsonLinesFile<ApodStorage.ApodMetadataFile> file;
+    private final TreeMap<String, ApodStorage.ApodMetadataFile> entries = new TreeMap<>();
+    private int recordCount;
+
+    private ApodCatalog(Path directory) {
+        this.directory = directory;
+        this.file = new JsonLinesFile<>(directory.resolve(CATALOG_FILE), ApodStorage.ApodMetadataFile.class);
+    }
+
+    /**
+     * Returns the catalog of the given images directory, loading it on first use.
+     * A directory without a catalog file gets its legacy .json sidecars imported once.
+     */
+    public static ApodCatalog forDirectory(String imagesDir) throws IOException {
+        Path directory = Paths.get(imagesDir).toAbsolutePath().normalize();
+        DirectoryLock.acquireShared(directory);
+        ApodCatalog catalog = catalogs.get(directory);
+        if (catalog == null) {
+            synchronized (catalogs) {
+                catalog = catalogs.get(directory);
+                if (catalog == null) {
+                    catalog = new ApodCatalog(directory);
+                    catalog.load();
+                    catalogs.put(directory, catalog);
+                }
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Adds or replaces the entry for the record's date.
+     */
+    public synchronized void put(ApodStorage.ApodMetadataFile metadata) throws IOException {
+        if (metadata.date == null) {
+            throw new IllegalArgumentException("Catalog entries require a date");
+        }
+        file.append(metadata);
+        entries.put(metadata.date, metadata);
+        recordCount++;
+    }
+
+    /**
+     * Returns the entry for a date (YYYY-MM-DD), or null if not catalogued.
+     */
+    public synchronized ApodStorage.ApodMetadataFile get(String date) {
+        return entries.get(date);
+    }
+
+    /**
+     * Returns all entries ordered by date.
+     */
+    public synchronized List<ApodStorage.ApodMetadataFile> entries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Returns entries indexed by the path of their image relative to the images directory,
+     * as listed by {@link ImageLayout#images()}.
+     */
+    public synchronized Map<String, ApodStorage.ApodMetadataFile> entriesByImagePath() {
+        Map<String, ApodStorage.ApodMetadataFile> byPath = new HashMap<>();
+        for (ApodStorage.ApodMetadataFile metadata : entries.values()) {
+            if (metadata.image_path != null) {
+                byPath.put(relativeImagePath(metadata.image_path), metadata);
+            }
+        }
+        return byPath;
+    }
+
+    /**
+     * Turns a recorded image_path into a path relative to the directory. Paths recorded
+     * from another working directory keep their yyyy/MM shard, or else their file name.
+     */
+    private String relativeImagePath(String imagePath) {
+        Path path = Paths.get(imagePath).toAbsolutePath().normalize();
+        if (path.startsWith(directory)) {
+            return directory.relativize(path).toString().replace('\\', '/');
+        }
+        Matcher shard = SHARD_PATH.matcher(imagePath.replace('\\', '/'));
+        return shard.find() ? shard.group(1) : path.getFileName().toString();
+    }
+
+    /**
+     * Number of catalogued dates.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Imports every legacy .json sidecar in the directory whose date is not catalogued yet.
+     * Returns the number of imported entries.
+     */
+    public synchronized int importSidecars() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+
+        List<Path> sidecars;
+        try (Stream<Path> files = Files.list(directory)) {
+            sidecars = files.filter(p -> p.getFileName().toString().endsWith(".json")).sorted().toList();
+        }
+
+        int imported = 0;
+        for (Path sidecar : sidecars) {
+            try {
+                ApodStorage.ApodMetadataFile metadata = gson.fromJson(
+                        Files.readString(sidecar, StandardCharsets.UTF_8), ApodStorage.ApodMetadataFile.class);
+                if (metadata != null && metadata.date != null && !entries.containsKey(metadata.date)) {
+                    entries.put(metadata.date, metadata);
+                    imported++;
+                }
+            } catch (IOException | JsonParseException e) {
+                logger.warn("Skipping unreadable sidecar {}: {}", sidecar, e.getMessage());
+            }
+        }
+
+        if (imported > 0 || !file.exists()) {
+            compact();
+        }
+        logger.info("Imported {} sidecar(s) into {}", imported, file.getPath());
+        return imported;
+    }
+
+    /**
+     * Rewrites the catalog file with exactly one record per date.
+     */
+    public synchronized void compact() throws IOException {
+        file.rewrite(entries.values());
+        recordCount = entries.size();
+    }
+
+    /**
+     * Loads the catalog file, importing sidecars when it does not exist yet.
+     */
+    private void load() throws IOException {
+        if (!file.exists()) {
+            importSidecars();
+            return;
+        }
+
+        recordCount = file.readAll(metadata -> {
+            if (metadata.date != null) {
+                entries.put(metadata.date, metadata);
+            }
+        });
+
+        // Rewritten dates leave stale records behind; keep the file from growing unbounded
+        if (recordCount > entries.size() * 2 + 100) {
+            compact();
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.frankosn.apod.storage;
 
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.metrics.Histogram;
+import com.frankosn.apod.metrics.Metrics;
 import com.frankosn.apod.model.ApodData;
 import com.frankosn.apod.util.FileManager;
 import com.google.gson.Gson;
@@ -17,13 +20,17 @@ public class ApodStorage {
 
     private static final Logger logger = LoggerFactory.getLogger(ApodStorage.class);
     private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private static final Histogram writeLatency = Metrics.latency("apod_metadata_write_duration_seconds",
+            "Time to save the metadata of one APOD");
 
     /**
-     * Saves APOD metadata to a JSON file.
+     * Saves APOD metadata to the catalog and search index of the images directory, and to
+     * a JSON sidecar file next to the image when sidecars are enabled. The file name is
+     * relative to the images directory, as recorded in the manifest.
      */
-    public static void saveMetadata(ApodData data, String imagePath) throws IOException {
-        String metadataPath = FileManager.getMetadataPath(imagePath);
-
+    public static void saveMetadata(ApodData data, String imagesDir, String filename) throws IOException {
+        long started = System.nanoTime();
+        String imagePath = imagesDir + "/" + filename;
         ApodMetadataFile metadata = new ApodMetadataFile(
                 data.getTitle(),
                 data.getExplanation(),
@@ -34,6 +41,21 @@ public class ApodStorage {
                 imagePath
         );
 
+        ApodCatalog.forDirectory(imagesDir).put(metadata);
+        SearchIndex.forDirectory(imagesDir).add(metadata);
+        logger.info("Metadata for {} saved to catalog", metadata.date);
+
+        if (ConfigLoader.isSidecarEnabled()) {
+            writeSidecar(metadata);
+        }
+        writeLatency.observeSince(started);
+    }
+
+    /**
+     * Writes the JSON sidecar of a record next to its image.
+     */
+    public static void writeSidecar(ApodMetadataFile metadata) throws IOException {
+        String metadataPath = FileManager.getMetadataPath(metadata.image_path);
         try (FileWriter writer = new FileWriter(metadataPath)) {
             gson.toJson(metadata, writer);
         }
@@ -0,0 +1,246 @@
+package com.frankosn.apod.storage;
+
+import com.frankosn.apod.util.FileManager;
+import com.google.gson.Gson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Rolls the loose images of a closed year, with their sidecars and the year's catalog
+ * records, into the year's {@link PackFile} and removes the loose copies. Packed images
+ * keep their manifest file names and are found through {@link ImageLayout}, so nothing
+ * else changes for readers. Loose images the manifest does not know, as in archives
+ * downloaded before it existed, are recorded in it first, so they are packed too.
+ * <p>
+ * A year that already has a pack gets a new pack holding the old members plus the new
+ * images. The pack is written under a temporary name and renamed into place, and loose
+ * files are only deleted once their packed copy has been read back and matched its CRC,
+ * so an interrupted run loses nothing; running it again deletes what is left over.
+ */
+public class ArchivePacker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchivePacker.class);
+    private static final Gson gson = new Gson();
+
+    private final ImageLayout layout;
+    private final DownloadManifest manifest;
+    private final ApodCatalog catalog;
+    private final PackStore packs;
+    private boolean seeded;
+
+    public ArchivePacker(String imagesDir) throws IOException {
+        this.layout = ImageLayout.forDirectory(imagesDir);
+        this.manifest = DownloadManifest.forDirectory(imagesDir);
+        this.catalog = ApodCatalog.forDirectory(imagesDir);
+        this.packs = layout.packs();
+    }
+
+    /**
+     * Returns the closed years that still have loose images, oldest first.
+     */
+    public List<Integer> packableYears() throws IOException {
+        seedManifest();
+        int currentYear = LocalDate.now().getYear();
+        Set<Integer> years = new TreeSet<>();
+        for (DownloadManifest.Entry entry : manifest.entries()) {
+            if (isArchived(entry) && Files.isRegularFile(layout.resolve(entry.filename))) {
+                int year = Integer.parseInt(entry.date.substring(0, 4));
+                if (year < currentYear) {
+                    years.add(year);
+                }
+            }
+        }
+        return new ArrayList<>(years);
+    }
+
+    /**
+     * Packs the loose images of a year, reporting each packed file name.
+     *
+     * @throws IllegalArgumentException if the year is not over yet
+     */
+    public Report pack(int year, Consumer<String> progress) throws IOException {
+        if (year >= LocalDate.now().getYear()) {
+            throw new IllegalArgumentException("Only past years can be packed: " + year);
+        }
+        seedManifest();
+
+        Set<String> fresh = new LinkedHashSet<>();
+        Set<String> leftover = new LinkedHashSet<>();
+        manifest.entries().stream()
+                .filter(entry -> isArchived(entry) && entry.date.startsWith(year + "-"))
+                .sorted(Comparator.comparing(entry -> entry.date))
+                .map(entry -> entry.filename)
+                .filter(filename -> Files.isRegularFile(layout.resolve(filename)))
+                .forEach(filename -> (packs.find(filename) == null ? fresh : leftover).add(filename));
+
+        int removed = removeLeftovers(leftover);
+        Path target = packs.packPath(year);
+        if (fresh.isEmpty()) {
+            return new Report(year, 0, removed, Files.exists(target) ? Files.size(target) : 0);
+        }
+
+        List<PackFile.Member> members = new ArrayList<>();
+        if (Files.exists(target)) {
+            PackFile existing = PackFile.open(target);
+            for (PackFile.Entry entry : existing.entries()) {
+                if (!ApodCatalog.CATALOG_FILE.equals(entry.name())) {
+                    members.add(new PackFile.Member(entry.name(), entry.modified(),
+                            () -> PackFile.inputStream(existing.read(entry))));
+                }
+            }
+        }
+        List<String> packedFiles = new ArrayList<>();
+        for (String filename : fresh) {
+            // Sidecar first, so an interrupted run leaves the image behind as a leftover
+            String sidecar = FileManager.getMetadataPath(filename);
+            if (Files.isRegularFile(layout.resolve(sidecar))) {
+                packedFiles.add(sidecar);
+            }
+            packedFiles.add(filename);
+        }
+        for (String filename : packedFiles) {
+            Path file = layout.resolve(filename);
+            members.add(new PackFile.Member(filename, Files.getLastModifiedTime(file).toMillis(),
+                    () -> Files.newInputStream(file)));
+        }
+        byte[] records = catalogRecords(year);
+        members.add(new PackFile.Member(ApodCatalog.CATALOG_FILE, System.currentTimeMillis(),
+                () -> new ByteArrayInputStream(records)));
+
+        Files.createDirectories(target.getParent());
+        Path tempPath = target.resolveSibling(target.getFileName() + ".tmp");
+        PackFile.write(tempPath, members);
+        FileManager.moveIntoPlace(tempPath, target);
+        packs.reload();
+
+        PackFile written = PackFile.open(target);
+        for (String filename : packedFiles) {
+            PackFile.Entry entry = written.get(filename);
+            Path file = layout.resolve(filename);
+            if (entry == null || entry.length() != Files.size(file) || !written.verify(entry)) {
+                throw new IOException("Packed copy of " + filename + " does not match, keeping the loose file");
+            }
+            Files.delete(file);
+            removeEmptyShard(file.getParent());
+            if (FileManager.isImageFilename(filename)) {
+                progress.accept(filename);
+            }
+        }
+
+        Report report = new Report(year, fresh.size(), removed, Files.size(target));
+        logger.info("Packed {}: {}", target, report);
+        return report;
+    }
+
+    /**
+     * Records the loose images missing from the manifest, once per packer.
+     */
+    private void seedManifest() throws IOException {
+        if (seeded) {
+            return;
+        }
+        int recorded = manifest.seedLooseImages(catalog);
+        if (recorded > 0) {
+            logger.info("Recorded {} image(s) missing from the manifest before packing", recorded);
+        }
+        seeded = true;
+    }
+
+    /**
+     * Deletes loose files whose packed copy is identical, e.g. after an interrupted run.
+     * Loose files that differ from their packed copy are kept, and win over it when read.
+     */
+    private int removeLeftovers(Set<String> leftover) throws IOException {
+        int removed = 0;
+        for (String filename : leftover) {
+            PackStore.Located packed = packs.find(filename);
+            Path file = layout.resolve(filename);
+            if (packed.entry().length() == Files.size(file) && crc(file) == packed.entry().crc()) {
+                Files.delete(file);
+                Path sidecar = layout.resolve(FileManager.getMetadataPath(filename));
+                if (packs.find(FileManager.getMetadataPath(filename)) != null) {
+                    Files.deleteIfExists(sidecar);
+                }
+                removeEmptyShard(file.getParent());
+                removed++;
+            } else {
+                logger.warn("Keeping {}: it differs from its packed copy in {}", file, packed.pack().getPath());
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the catalog records of a year as JSON lines, the same format as the catalog.
+     */
+    private byte[] catalogRecords(int year) {
+        StringBuilder records = new StringBuilder();
+        for (ApodStorage.ApodMetadataFile metadata : catalog.entries()) {
+            if (metadata.date.startsWith(year + "-")) {
+                records.append(gson.toJson(metadata)).append('\n');
+            }
+        }
+        return records.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Removes a yyyy/MM shard directory, and then its year directory, once they are empty.
+     */
+    private void removeEmptyShard(Path directory) throws IOException {
+        Path root = layout.resolve("");
+        for (Path dir = directory; dir != null && !dir.equals(root) && dir.startsWith(root); dir = dir.getParent()) {
+            try {
+                Files.deleteIfExists(dir);
+            } catch (DirectoryNotEmptyException e) {
+                return;
+            }
+        }
+    }
+
+    private static int crc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    private static boolean isArchived(DownloadManifest.Entry entry) {
+        return entry.filename != null && entry.date != null
+                && !entry.filename.startsWith(BlobStore.BLOB_DIR + "/")
+                && (entry.status == DownloadManifest.Status.DOWNLOADED || entry.status == DownloadManifest.Status.VIDEO);
+    }
+
+    /**
+     * Outcome of packing a year: images added to its pack, loose copies of already packed
+     * images removed, and the size of the pack.
+     */
+    public record Report(int year, int packed, int leftoversRemoved, long packBytes) {
+        @Override
+        public String toString() {
+            return String.format("%d: %d image(s) packed, %d leftover(s) removed, pack %.1f MB",
+                    year, packed, leftoversRemoved, packBytes / 1048576.0);
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package com.frankosn.apod.storage;
+
+import com.frankosn.apod.model.ApodData;
+import com.frankosn.apod.util.FileManager;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadWarningListener;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Checks every archived image of a directory against the manifest: that it exists, has
+ * the recorded size and SHA-256 (or, for packed images without one, the pack's CRC-32),
+ * decodes as an image, and that its sidecar and catalog record describe the same date and
+ * file. Images are hashed from memory-mapped reads, one per worker, so a run keeps every
+ * core and the disk busy.
+ * <p>
+ * Dates with a bad image can be queued for download again: they are recorded as failed
+ * in the manifest, which the next download or sync retries, and their loose image and
+ * sidecar are moved to {@value #QUARANTINE_DIR} so they are not reused. Dates whose image
+ * is fine but whose metadata disagrees get it rewritten instead, from the catalog or the
+ * API. Images that pass but had no recorded checksum get one, so later runs can detect
+ * changes to them.
+ */
+public class ArchiveVerifier {
+
+    public static final String QUARANTINE_DIR = ".quarantine";
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveVerifier.class);
+    private static final Gson gson = new Gson();
+    private static final int SUBSAMPLING = 8;
+
+    private final String imagesDir;
+    private final ImageLayout layout;
+    private final DownloadManifest manifest;
+    private final ApodCatalog catalog;
+    private final MetadataSource api;
+
+    /**
+     * @param api where to fetch the metadata of a date when its catalog record is wrong too
+     */
+    public ArchiveVerifier(String imagesDir, MetadataSource api) throws IOException {
+        this.imagesDir = imagesDir;
+        this.api = api;
+        this.layout = ImageLayout.forDirectory(imagesDir);
+        this.manifest = DownloadManifest.forDirectory(imagesDir);
+        this.catalog = ApodCatalog.forDirectory(imagesDir);
+        ImageIO.setUseCache(false);
+    }
+
+    /**
+     * Verifies every archived date with the given number of workers, reporting each
+     * problem as it is found, in date order.
+     *
+     * @param decode whether to decode images, the most expensive check
+     * @param repair whether to queue bad dates for download, rewrite bad metadata and record
+     *               missing checksums
+     */
+    public Report verify(int threads, boolean decode, boolean repair, Consumer<Finding> listener)
+            throws IOException, InterruptedException {
+        List<DownloadManifest.Entry> entries = manifest.entries().stream()
+                .filter(entry -> entry.filename != null && entry.date != null
+                        && (entry.status == DownloadManifest.Status.DOWNLOADED
+                        || entry.status == DownloadManifest.Status.VIDEO))
+                .sorted(Comparator.comparing(entry -> entry.date))
+                .toList();
+        Map<String, Set<String>> datesByFile = new HashMap<>();
+        for (DownloadManifest.Entry entry : entries) {
+            datesByFile.computeIfAbsent(entry.filename, f -> new HashSet<>()).add(entry.date);
+        }
+
+        long started = System.nanoTime();
+        int problems = 0;
+        int queued = 0;
+        int rewritten = 0;
+        int hashed = 0;
+        long bytes = 0;
+        List<Check> bad = new ArrayList<>();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Check>> checks = new ArrayList<>(entries.size());
+            for (DownloadManifest.Entry entry : entries) {
+                checks.add(workers.submit(() -> check(entry, datesByFile.get(entry.filename), decode)));
+            }
+            for (Future<Check> future : checks) {
+                Check check;
+                try {
+                    check = future.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Verification failed: " + e.getCause().getMessage(), e.getCause());
+                }
+                bytes += check.bytes();
+                if (check.finding() != null) {
+                    problems++;
+                    listener.accept(check.finding());
+                    bad.add(check);
+                } else if (repair && check.sha256() != null && check.entry().sha256 == null) {
+                    DownloadManifest.Entry updated = new DownloadManifest.Entry(check.entry().date,
+                            check.entry().status, check.entry().filename, check.entry().url, check.bytes());
+                    updated.sha256 = check.sha256();
+                    manifest.record(updated);
+                    hashed++;
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        // Only once every check is done, since dates sharing a file would see it disappear
+        if (repair) {
+            Set<String> rewrittenSidecars = new HashSet<>();
+            for (Check check : bad) {
+                if (check.finding().problem() != Problem.METADATA_MISMATCH) {
+                    queue(check.entry(), check.finding());
+                    queued++;
+                } else if (repairMetadata(check.entry(), rewrittenSidecars)) {
+                    rewritten++;
+                }
+            }
+        }
+        if (repair && (queued > 0 || rewritten > 0 || hashed > 0)) {
+            manifest.compact();
+        }
+
+        Report report = new Report(entries.size(), problems, queued, rewritten, hashed, bytes,
+                System.nanoTime() - started);
+        logger.info("Verified {}: {}", imagesDir, report);
+        return report;
+    }
+
+    /**
+     * Runs every check on one date. Loose images are mapped and packed images read from
+     * their pack's mapping, so the bytes are hashed and decoded without being copied.
+     */
+    private Check check(DownloadManifest.Entry entry, Set<String> sharingDates, boolean decode) throws IOException {
+        String filename = entry.filename;
+        if (!layout.exists(filename)) {
+            return problem(entry, Problem.MISSING, "file not found");
+        }
+        long size = layout.size(filename);
+        if (entry.size > 0 && size != entry.size) {
+            return problem(entry, Problem.SIZE_MISMATCH, "expected " + entry.size + " bytes, found " + size);
+        }
+
+        PackStore.Located packed = layout.isPacked(filename) ? layout.packs().find(filename) : null;
+        String sha256 = null;
+        if (packed != null) {
+            ByteBuffer bytes = packed.pack().read(packed.entry());
+            if (entry.sha256 != null) {
+                sha256 = sha256(bytes);
+            } else if (!packed.pack().verify(packed.entry())) {
+                return problem(entry, Problem.CHECKSUM_MISMATCH, "does not match its CRC-32 in " + packed.pack().getPath());
+            }
+            Finding finding = verifyContent(entry, sha256, decode ? bytes : null);
+            if (finding != null) {
+                return new Check(entry, finding, null, size);
+            }
+        } else {
+            try (FileChannel channel = FileChannel.open(layout.resolve(filename), StandardOpenOption.READ)) {
+                ByteBuffer bytes = null;
+                if (size <= Integer.MAX_VALUE) {
+                    bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    sha256 = sha256(bytes);
+                } else {
+                    // Too large for one mapping, and for an APOD image; hash it as a stream
+                    sha256 = FileManager.sha256(layout.resolve(filename));
+                }
+                Finding finding = verifyContent(entry, sha256, decode ? bytes : null);
+                if (finding != null) {
+                    return new Check(entry, finding, null, size);
+                }
+            }
+        }
+
+        String metadataError = metadataError(entry, sharingDates);
+        if (metadataError != null) {
+            return problem(entry, Problem.METADATA_MISMATCH, metadataError);
+        }
+        return new Check(entry, null, sha256, size);
+    }
+
+    /**
+     * Compares the hash with the recorded one, then decodes the image if its bytes are
+     * given. Returns the problem found, or null.
+     */
+    private static Finding verifyContent(DownloadManifest.Entry entry, String sha256, ByteBuffer bytes)
+            throws IOException {
+        if (entry.sha256 != null && !entry.sha256.equalsIgnoreCase(sha256)) {
+            return new Finding(entry.date, entry.filename, Problem.CHECKSUM_MISMATCH,
+                    "SHA-256 is " + sha256 + ", expected " + entry.sha256);
+        }
+        if (bytes != null) {
+            String error = decodeError(entry.filename, PackFile.inputStream(bytes));
+            if (error != null) {
+                return new Finding(entry.date, entry.filename, Problem.UNDECODABLE, error);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes an image at reduced resolution, which still reads all of its data. Returns
+     * why it cannot be decoded, or null if it can (or is in a format without a decoder,
+     * such as a video).
+     */
+    private static String decodeError(String filename, InputStream in) throws IOException {
+        String extension = extensionOf(filename);
+        try (ImageInputStream stream = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                return isDecodable(extension) ? "not a valid " + extension + " image" : null;
+            }
+            ImageReader reader = readers.next();
+            List<String> warnings = new ArrayList<>();
+            IIOReadWarningListener warningListener = (source, warning) -> warnings.add(warning);
+            reader.addIIOReadWarningListener(warningListener);
+            try {
+                reader.setInput(stream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(SUBSAMPLING, SUBSAMPLING, 0, 0);
+                reader.read(0, param);
+            } catch (IIOException | IndexOutOfBoundsException | IllegalArgumentException e) {
+                return "does not decode: " + e.getMessage();
+            } finally {
+                reader.dispose();
+            }
+            return warnings.isEmpty() ? null : "decodes with errors: " + warnings.get(0);
+        }
+    }
+
+    /**
+     * Cross-checks the sidecar (when there is one) and the catalog record against the
+     * manifest. Returns what disagrees, or null. Dates sharing a file may own its sidecar.
+     */
+    private String metadataError(DownloadManifest.Entry entry, Set<String> sharingDates) throws IOException {
+        String basename = basename(entry.filename);
+        String sidecar = FileManager.getMetadataPath(entry.filename);
+        if (layout.exists(sidecar)) {
+            ApodStorage.ApodMetadataFile metadata;
+            try (Reader reader = new InputStreamReader(layout.open(sidecar), StandardCharsets.UTF_8)) {
+                metadata = gson.fromJson(reader, ApodStorage.ApodMetadataFile.class);
+            } catch (JsonParseException e) {
+                return "sidecar " + sidecar + " is not valid JSON";
+            }
+            if (metadata == null || metadata.date == null || !sharingDates.contains(metadata.date)) {
+                return "sidecar " + sidecar + " is for " + (metadata == null ? "no date" : metadata.date);
+            }
+            if (metadata.image_path != null && !basename.equals(basename(metadata.image_path))) {
+                return "sidecar " + sidecar + " describes " + metadata.image_path;
+            }
+        }
+
+        ApodStorage.ApodMetadataFile record = catalog.get(entry.date);
+        if (record != null && record.image_path != null && !basename.equals(basename(record.image_path))) {
+            return "catalog record describes " + record.image_path;
+        }
+        return null;
+    }
+
+    /**
+     * Records a date with a bad image as failed and moves its loose image and sidecar out of
+     * the way, so the next download fetches them again instead of reusing them.
+     */
+    private void queue(DownloadManifest.Entry entry, Finding finding) throws IOException {
+        if (finding.problem() != Problem.MISSING && Files.exists(layout.resolve(entry.filename))) {
+            quarantine(entry.filename);
+            quarantine(FileManager.getMetadataPath(entry.filename));
+            dropBlob(entry);
+        }
+        manifest.record(new DownloadManifest.Entry(entry.date, DownloadManifest.Status.FAILED, null, null, 0));
+    }
+
+    /**
+     * Rewrites the catalog record and sidecar of a date whose image is fine, from its catalog
+     * record while that still describes the image, otherwise from the API. The bad sidecar is
+     * quarantined once per file, as dates sharing a file share it. Returns whether the
+     * metadata was rewritten.
+     */
+    private boolean repairMetadata(DownloadManifest.Entry entry, Set<String> rewrittenSidecars) throws IOException {
+        ApodStorage.ApodMetadataFile record = catalog.get(entry.date);
+        ApodData data;
+        if (record != null && record.image_path != null && basename(entry.filename).equals(basename(record.image_path))) {
+            data = toApodData(record);
+        } else {
+            try {
+                data = api.fetch(entry.date);
+            } catch (IOException e) {
+                logger.warn("Could not fetch the metadata of {} to repair it: {}", entry.date, e.getMessage());
+                return false;
+            }
+        }
+
+        String sidecar = FileManager.getMetadataPath(entry.filename);
+        if (rewrittenSidecars.add(sidecar)) {
+            quarantine(sidecar);
+        }
+        Files.createDirectories(layout.resolve(entry.filename).getParent());
+        ApodStorage.saveMetadata(data, imagesDir, entry.filename);
+        if (layout.isPacked(sidecar)) {
+            // Packed sidecars cannot be replaced, but a loose one takes precedence
+            ApodStorage.writeSidecar(catalog.get(entry.date));
+        }
+        return true;
+    }
+
+    private static ApodData toApodData(ApodStorage.ApodMetadataFile record) {
+        ApodData data = new ApodData();
+        data.setTitle(record.title);
+        data.setExplanation(record.explanation);
+        data.setDate(record.date);
+        data.setMediaType(record.media_type);
+        data.setUrl(record.url);
+        data.setHdurl(record.hdurl);
+        return data;
+    }
+
+    private void quarantine(String relativePath) throws IOException {
+        Path source = layout.resolve(relativePath);
+        if (!Files.isRegularFile(source)) {
+            return;
+        }
+        Path target = layout.resolve(QUARANTINE_DIR).resolve(relativePath);
+        Files.createDirectories(target.getParent());
+        FileManager.moveIntoPlace(source, target);
+        logger.info("Quarantined {} to {}", source, target);
+    }
+
+    /**
+     * Deletes the blob a bad image was linked to, so the blob store downloads it again
+     * instead of linking the same bytes. The quarantined link keeps them for inspection.
+     */
+    private void dropBlob(DownloadManifest.Entry entry) throws IOException {
+        if (entry.sha256 == null) {
+            return;
+        }
+        Path quarantined = layout.resolve(QUARANTINE_DIR).resolve(entry.filename);
+        int dot = entry.filename.lastIndexOf('.');
+        Path blob = new BlobStore(imagesDir, manifest).blobPath(entry.sha256, dot > 0 ? entry.filename.substring(dot) : "");
+        if (Files.exists(blob) && Files.exists(quarantined) && Files.isSameFile(blob, quarantined)) {
+            Files.delete(blob);
+        }
+    }
+
+    private static Check problem(DownloadManifest.Entry entry, Problem problem, String detail) {
+        return new Check(entry, new Finding(entry.date, entry.filename, problem, detail), null, 0);
+    }
+
+    private static String sha256(ByteBuffer bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update(bytes.duplicate());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static boolean isDecodable(String extension) {
+        for (String suffix : ImageIO.getReaderFileSuffixes()) {
+            if (suffix.equalsIgnoreCase(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String extensionOf(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot < 0 ? "" : filename.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static String basename(String path) {
+        String normalized = path.replace('\\', '/');
+        return normalized.substring(normalized.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Kind of problem found with a date's archived files.
+     */
+    public enum Problem {
+        MISSING,
+        SIZE_MISMATCH,
+        CHECKSUM_MISMATCH,
+        UNDECODABLE,
+        METADATA_MISMATCH
+    }
+
+    /**
+     * A problem with one date.
+     */
+    public record Finding(String date, String filename, Problem problem, String detail) {
+        @Override
+        public String toString() {
+            return date + " " + filename + ": " + problem + " (" + detail + ")";
+        }
+    }
+
+    private record Check(DownloadManifest.Entry entry, Finding finding, String sha256, long bytes) {
+    }
+
+    /**
+     * Fetches the metadata of a date, e.g. from the APOD API.
+     */
+    @FunctionalInterface
+    public interface MetadataSource {
+        ApodData fetch(String date) throws IOException;
+    }
+
+    /**
+     * Outcome of a run: dates checked, dates with problems, dates queued for download, dates
+     * whose metadata was rewritten, checksums recorded for the first time, and bytes read.
+     */
+    public record Report(int checked, int problems, int queued, int rewritten, int hashed, long bytes,
+                         long elapsedNanos) {
+
+        public double megabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytes / 1048576.0 / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d date(s) checked, %d with problems, %d queued for download, "
+                            + "%d with metadata rewritten, %d checksum(s) recorded, %.1f MB read at %.1f MB/s",
+                    checked, problems, queued, rewritten, hashed, bytes / 1048576.0, megabytesPerSecond());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.frankosn.apod.storage;
+
+import com.frankosn.apod.util.FileManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed image store. Each distinct image is kept once under
+ * {@value #BLOB_DIR}/&lt;first two hex digits&gt;/&lt;sha256&gt;.&lt;ext&gt;, using the SHA-256
+ * computed while it is downloaded. Per-date entries in the images directory are hard
+ * links to the blob; where hard links are not supported, the manifest references the
+ * blob path directly. Identical images published on different dates therefore take
+ * disk space once, and two different images can never collide on a file name.
+ */
+public class BlobStore {
+
+    public static final String BLOB_DIR = ".blobs";
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+    private static final String INCOMING_DIR = "incoming";
+
+    private final Path imagesDir;
+    private final Path blobDir;
+    private final Map<String, String> shaByUrl = new ConcurrentHashMap<>();
+
+    public BlobStore(String imagesDir, DownloadManifest manifest) {
+        this.imagesDir = Paths.get(imagesDir).toAbsolutePath().normalize();
+        this.blobDir = this.imagesDir.resolve(BLOB_DIR);
+        for (DownloadManifest.Entry entry : manifest.entries()) {
+            if (entry.url != null && entry.sha256 != null) {
+                shaByUrl.put(entry.url, entry.sha256);
+            }
+        }
+    }
+
+    /**
+     * Stores the image at the URL for a date and exposes it in the images directory.
+     * An image whose URL was stored before is linked again without being downloaded.
+     */
+    public StoredBlob store(String imageUrl, String date, String filename) throws IOException {
+        String extension = extensionOf(filename);
+
+        String knownSha = shaByUrl.get(imageUrl);
+        if (knownSha != null && Files.exists(blobPath(knownSha, extension))) {
+            Path blob = blobPath(knownSha, extension);
+            return new StoredBlob(link(blob, knownSha, filename), knownSha, Files.size(blob), false, true);
+        }
+
+        Path incoming = blobDir.resolve(INCOMING_DIR).resolve(date + "-" + filename);
+        Files.createDirectories(incoming.getParent());
+        String sha256 = FileManager.downloadFile(imageUrl, incoming.toString());
+
+        Path blob = blobPath(sha256, extension);
+        boolean duplicate = Files.exists(blob);
+        if (duplicate) {
+            Files.delete(incoming);
+        } else {
+            Files.createDirectories(blob.getParent());
+            FileManager.moveIntoPlace(incoming, blob);
+        }
+        shaByUrl.put(imageUrl, sha256);
+
+        return new StoredBlob(link(blob, sha256, filename), sha256, Files.size(blob), true, duplicate);
+    }
+
+    /**
+     * Returns where the blob with the given hash is stored.
+     */
+    public Path blobPath(String sha256, String extension) {
+        return blobDir.resolve(sha256.substring(0, 2)).resolve(sha256 + extension);
+    }
+
+    /**
+     * Exposes a blob under the images directory at the given relative path and returns the
+     * entry name (relative to the images directory) that the manifest should record.
+     */
+    private String link(Path blob, String sha256, String filename) throws IOException {
+        Path entry = imagesDir.resolve(filename);
+        synchronized (this) {
+            if (Files.exists(entry)) {
+                if (Files.isSameFile(entry, blob)) {
+                    return relativeName(entry);
+                }
+                if (Files.size(entry) == Files.size(blob) && FileManager.sha256(entry).equals(sha256)) {
+                    // A pre-existing loose copy of the same image: replace it with a link
+                    Files.delete(entry);
+                } else {
+                    // Same name, different image: give this content its own name
+                    entry = imagesDir.resolve(baseNameOf(filename) + "_" + sha256.substring(0, 12)
+                            + extensionOf(filename));
+                    if (Files.exists(entry) && Files.isSameFile(entry, blob)) {
+                        return relativeName(entry);
+                    }
+                    Files.deleteIfExists(entry);
+                }
+            }
+
+            try {
+                Files.createDirectories(entry.getParent());
+                Files.createLink(entry, blob);
+                return relativeName(entry);
+            } catch (UnsupportedOperationException | IOException e) {
+                logger.debug("Hard link {} -> {} failed, referencing blob directly: {}", entry, blob, e.getMessage());
+                return relativeName(blob);
+            }
+        }
+    }
+
+    private String relativeName(Path path) {
+        return imagesDir.relativize(path).toString().replace('\\', '/');
+    }
+
+    /**
+     * Computes deduplication statistics over the manifest and the blobs on disk.
+     */
+    public DedupeStats stats(DownloadManifest manifest) throws IOException {
+        long referencedBytes = 0;
+        int references = 0;
+        Set<String> referencedShas = new HashSet<>();
+        for (DownloadManifest.Entry entry : manifest.entries()) {
+            if (entry.sha256 != null && entry.status != DownloadManifest.Status.FAILED) {
+                references++;
+                referencedBytes += entry.size;
+                referencedShas.add(entry.sha256);
+            }
+        }
+
+        long blobCount = 0;
+        long blobBytes = 0;
+        if (Files.isDirectory(blobDir)) {
+            try (Stream<Path> files = Files.walk(blobDir)) {
+                for (Path blob : (Iterable<Path>) files::iterator) {
+                    if (Files.isRegularFile(blob) && !blob.getParent().getFileName().toString().equals(INCOMING_DIR)) {
+                        blobCount++;
+                        blobBytes += Files.size(blob);
+                    }
+                }
+            }
+        }
+        return new DedupeStats(references, referencedShas.size(), blobCount, blobBytes,
+                Math.max(0, referencedBytes - blobBytes));
+    }
+
+    private static String extensionOf(String filename) {
+        int lastDot = filename.lastIndexOf('.');
+        return lastDot > 0 ? filename.substring(lastDot) : "";
+    }
+
+    private static String baseNameOf(String filename) {
+        int lastDot = filename.lastIndexOf('.');
+        return lastDot > 0 ? filename.substring(0, lastDot) : filename;
+    }
+
+    /**
+     * Result of storing an image: the entry name for the date, its hash and size, whether it
+     * was downloaded in this call, and whether identical content was already stored.
+     */
+    public record StoredBlob(String filename, String sha256, long size, boolean downloaded, boolean deduplicated) {
+    }
+
+    /**
+     * Deduplication statistics: dates referencing stored content, distinct images among them,
+     * blobs on disk with their total size, and bytes saved compared to one copy per date.
+     */
+    public record DedupeStats(int references, int distinctImages, long blobs, long blobBytes, long savedBytes) {
+        @Override
+        public String toString() {
+            return String.format("%d date(s) -> %d blob(s), %.1f MB stored, %.1f MB saved",
+                    references, blobs, blobBytes / 1048576.0, savedBytes / 1048576.0);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.frankosn.apod.storage;
+
+import com.frankosn.apod.util.DateUtil;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Bitmap of which APOD dates are archived, one bit per day from the first APOD
+ * ({@link #FIRST_APOD}) to a last date. About 1.5 KB covers the whole archive.
+ */
+public class CoverageMap {
+
+    public static final LocalDate FIRST_APOD = LocalDate.of(1995, 6, 16);
+
+    private final BitSet covered = new BitSet();
+    private LocalDate last;
+
+    public CoverageMap(LocalDate last) {
+        this.last = last;
+    }
+
+    /**
+     * Builds the coverage of an archive from its manifest: dates whose file is on disk or
+     * which the API has no image for are covered.
+     */
+    public static CoverageMap fromManifest(DownloadManifest manifest, LocalDate last) {
+        CoverageMap map = new CoverageMap(last);
+        for (LocalDate date = FIRST_APOD; !date.isAfter(last); date = date.plusDays(1)) {
+            if (manifest.isComplete(DateUtil.formatDate(date))) {
+                map.covered.set(index(date));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Moves the last tracked date forward, e.g. when a new day starts.
+     */
+    public synchronized void extendTo(LocalDate date) {
+        if (date.isAfter(last)) {
+            last = date;
+        }
+    }
+
+    public synchronized void set(LocalDate date, boolean isCovered) {
+        if (!date.isBefore(FIRST_APOD) && !date.isAfter(last)) {
+            covered.set(index(date), isCovered);
+        }
+    }
+
+    public synchronized boolean isCovered(LocalDate date) {
+        return !date.isBefore(FIRST_APOD) && covered.get(index(date));
+    }
+
+    /**
+     * Returns the dates not yet covered, newest first.
+     */
+    public synchronized List<LocalDate> missing() {
+        List<LocalDate> dates = new ArrayList<>(totalDays() - covered.cardinality());
+        for (int i = covered.previousClearBit(index(last)); i >= 0; i = covered.previousClearBit(i - 1)) {
+            dates.add(FIRST_APOD.plusDays(i));
+        }
+        return dates;
+    }
+
+    public synchronized int totalDays() {
+        return index(last) + 1;
+    }
+
+    public synchronized int coveredDays() {
+        return covered.cardinality();
+    }
+
+    /**
+     * Share of tracked days that are covered, from 0 to 100.
+     */
+    public synchronized double percent() {
+        return 100.0 * coveredDays() / totalDays();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d/%d days (%.2f%%)", coveredDays(), totalDays(), percent());
+    }
+
+    private static int index(LocalDate date) {
+        return (int) (date.toEpochDay() - FIRST_APOD.toEpochDay());
+    }
+}
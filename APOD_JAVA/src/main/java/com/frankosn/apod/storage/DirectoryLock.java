@@ -0,0 +1,92 @@
+package com.frankosn.apod.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cross-process lock on an images directory, held on its {@value #LOCK_FILE} file until the
+ * process exits. Every process using a directory holds it shared (taken by
+ * {@link ImageLayout#forDirectory} and {@link ApodCatalog#forDirectory}), since each keeps the layout, manifest and catalog in
+ * memory. Operations that rewrite those files from their own state, like the
+ * {@link LayoutMigration}, take it exclusively and refuse to start while another process
+ * has the directory open.
+ */
+public class DirectoryLock {
+
+    public static final String LOCK_FILE = ".lock";
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryLock.class);
+    private static final Map<Path, FileLock> held = new HashMap<>();
+
+    private DirectoryLock() {
+    }
+
+    /**
+     * Holds the directory's lock shared, waiting while another process holds it exclusively.
+     * Does nothing if this process already holds it. A directory whose lock file cannot be
+     * created, e.g. a read-only archive, is used unlocked.
+     */
+    static void acquireShared(Path directory) {
+        synchronized (held) {
+            if (held.containsKey(directory)) {
+                return;
+            }
+            try {
+                FileChannel channel = open(directory);
+                FileLock lock = channel.tryLock(0, Long.MAX_VALUE, true);
+                if (lock == null) {
+                    logger.info("Waiting for another process to finish rewriting {}", directory);
+                    lock = channel.lock(0, Long.MAX_VALUE, true);
+                }
+                held.put(directory, lock);
+            } catch (IOException e) {
+                logger.debug("Could not lock {}: {}", directory, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Holds the directory's lock exclusively until the process exits.
+     *
+     * @throws IOException if another process has the directory open
+     */
+    public static void acquireExclusive(String imagesDir) throws IOException {
+        Path directory = Paths.get(imagesDir).toAbsolutePath().normalize();
+        synchronized (held) {
+            FileLock current = held.get(directory);
+            if (current != null && !current.isShared()) {
+                return;
+            }
+            if (current != null) {
+                current.channel().close();
+                held.remove(directory);
+            }
+
+            FileChannel channel = open(directory);
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                channel.close();
+                acquireShared(directory);
+                throw new IOException(directory + " is in use by another process;"
+                        + " stop its downloads, sync or server first");
+            }
+            held.put(directory, lock);
+        }
+    }
+
+    private static FileChannel open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+}
@@ -0,0 +1,210 @@
+package com.frankosn.apod.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Per-directory record of what is already archived for each date, stored in
+ * {@value #MANIFEST_FILE}. Lets range downloads decide locally which dates still
+ * need the API, instead of fetching metadata just to learn the image file name.
+ */
+public class DownloadManifest {
+
+    public static final String MANIFEST_FILE = "manifest.ndjson";
+
+    private static final Map<Path, DownloadManifest> manifests = new ConcurrentHashMap<>();
+    private static final Pattern DATE_IN_NAME = Pattern.compile("(\\d{4}-\\d{2}-\\d{2})");
+
+    private final ImageLayout layout;
+    private final JsonLinesFile<Entry> file;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private int recordCount;
+
+    private DownloadManifest(Path directory) {
+        this.layout = ImageLayout.forDirectory(directory.toString());
+        this.file = new JsonLinesFile<>(directory.resolve(MANIFEST_FILE), Entry.class);
+    }
+
+    /**
+     * Returns the manifest of the given images directory, loading it on first use.
+     */
+    public static DownloadManifest forDirectory(String imagesDir) throws IOException {
+        Path directory = Paths.get(imagesDir).toAbsolutePath().normalize();
+        DownloadManifest manifest = manifests.get(directory);
+        if (manifest == null) {
+            synchronized (manifests) {
+                manifest = manifests.get(directory);
+                if (manifest == null) {
+                    manifest = new DownloadManifest(directory);
+                    manifest.load();
+                    manifests.put(directory, manifest);
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Returns the entry for a date (YYYY-MM-DD), or null if the date was never attempted.
+     */
+    public synchronized Entry get(String date) {
+        return entries.get(date);
+    }
+
+    /**
+     * Whether a date needs no further network access: either its file is on disk, loose
+     * or packed, or the API is known to have no image for it.
+     */
+    public synchronized boolean isComplete(String date) {
+        Entry entry = entries.get(date);
+        if (entry == null || entry.status == null) {
+            return false;
+        }
+        return switch (entry.status) {
+            case NO_IMAGE -> true;
+            case DOWNLOADED, VIDEO -> entry.filename != null && layout.exists(entry.filename);
+            case FAILED -> false;
+        };
+    }
+
+    /**
+     * Records the outcome for a date, replacing any earlier entry.
+     */
+    public synchronized void record(Entry entry) throws IOException {
+        file.append(entry);
+        entries.put(entry.date, entry);
+        recordCount++;
+    }
+
+    /**
+     * Records a stored image for a date, reading its size from disk. The SHA-256 may be
+     * null when the file was already present and not re-hashed.
+     */
+    public void recordStored(String date, String mediaType, String filename, String url,
+                             String sha256) throws IOException {
+        Status status = "video".equalsIgnoreCase(mediaType) ? Status.VIDEO : Status.DOWNLOADED;
+        long size = layout.size(filename);
+        Entry entry = new Entry(date, status, filename, url, size);
+        entry.sha256 = sha256;
+        record(entry);
+    }
+
+    /**
+     * Records the loose images the manifest does not know, e.g. those of an archive
+     * downloaded before the manifest existed. Each image's date comes from its catalog
+     * entry, or else from a YYYY-MM-DD in its file name; images with neither, and dates
+     * the manifest already records, are left alone. Returns the number of dates recorded.
+     */
+    public int seedLooseImages(ApodCatalog catalog) throws IOException {
+        Set<String> known = new HashSet<>();
+        for (Entry entry : entries()) {
+            if (entry.filename != null) {
+                known.add(entry.filename);
+            }
+        }
+        List<String> unknown;
+        try (Stream<String> images = layout.images()) {
+            unknown = images.filter(name -> !known.contains(name) && !layout.isPacked(name)).toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Map<String, ApodStorage.ApodMetadataFile> catalogued = catalog.entriesByImagePath();
+        int seeded = 0;
+        for (String filename : unknown) {
+            ApodStorage.ApodMetadataFile metadata = catalogued.get(filename);
+            String date = metadata != null ? metadata.date : dateInFilename(filename);
+            if (date == null || get(date) != null) {
+                continue;
+            }
+            boolean video = metadata != null && "video".equalsIgnoreCase(metadata.media_type);
+            String url = metadata == null ? null : !video && metadata.hdurl != null ? metadata.hdurl : metadata.url;
+            record(new Entry(date, video ? Status.VIDEO : Status.DOWNLOADED, filename, url, layout.size(filename)));
+            seeded++;
+        }
+        return seeded;
+    }
+
+    private static String dateInFilename(String filename) {
+        Matcher matcher = DATE_IN_NAME.matcher(filename.substring(filename.lastIndexOf('/') + 1));
+        if (!matcher.find()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(matcher.group(1)).toString();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a snapshot of all entries.
+     */
+    public synchronized List<Entry> entries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Rewrites the manifest file with exactly one record per date.
+     */
+    public synchronized void compact() throws IOException {
+        file.rewrite(entries.values());
+        recordCount = entries.size();
+    }
+
+    private void load() throws IOException {
+        recordCount = file.readAll(entry -> {
+            if (entry.date != null) {
+                entries.put(entry.date, entry);
+            }
+        });
+
+        if (recordCount > entries.size() * 2 + 100) {
+            compact();
+        }
+    }
+
+    /**
+     * Archive state of a date.
+     */
+    public enum Status {
+        DOWNLOADED,
+        VIDEO,
+        NO_IMAGE,
+        FAILED
+    }
+
+    /**
+     * Manifest record for a single date.
+     */
+    public static class Entry {
+        public String date;
+        public Status status;
+        public String filename;
+        public String url;
+        public long size;
+        public String sha256;
+
+        public Entry(String date, Status status, String filename, String url, long size) {
+            this.date = date;
+            this.status = status;
+            this.filename = filename;
+            this.url = url;
+            this.size = size;
+        }
+    }
+}
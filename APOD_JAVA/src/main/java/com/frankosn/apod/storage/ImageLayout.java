@@ -0,0 +1,204 @@
+package com.frankosn.apod.storage;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.util.FileManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Where images live inside an images directory: flat in the directory itself, or sharded
+ * into yyyy/MM/ subdirectories by APOD date so no single directory grows beyond a month
+ * of files. Paths handed out are relative to the images directory and may be used as
+ * manifest file names as-is.
+ * <p>
+ * A directory's layout is recorded in its {@value #LAYOUT_FILE} marker (written when the
+ * layout is switched, e.g. by {@link LayoutMigration}); directories without a marker use
+ * APOD_LAYOUT. Lookups and listings always cover both layouts, so a partly migrated
+ * archive stays fully readable. They also cover the directory's {@link PackStore packs}:
+ * a packed image keeps its path and is read from its pack wherever no loose copy exists.
+ */
+public class ImageLayout {
+
+    public static final String LAYOUT_FILE = ".layout";
+
+    private static final Map<Path, ImageLayout> layouts = new ConcurrentHashMap<>();
+    private static final Pattern YEAR = Pattern.compile("\\d{4}");
+    private static final Pattern MONTH = Pattern.compile("\\d{2}");
+
+    private final Path directory;
+    private final PackStore packs;
+    private volatile boolean sharded;
+
+    private ImageLayout(Path directory, boolean sharded) {
+        this.directory = directory;
+        this.packs = PackStore.forDirectory(directory.toString());
+        this.sharded = sharded;
+    }
+
+    /**
+     * Returns the layout of an images directory. The marker is read once per process; the
+     * shared {@link DirectoryLock} taken here keeps it from being switched underneath.
+     */
+    public static ImageLayout forDirectory(String imagesDir) {
+        Path directory = Paths.get(imagesDir).toAbsolutePath().normalize();
+        DirectoryLock.acquireShared(directory);
+        return layouts.computeIfAbsent(directory, d -> new ImageLayout(d, readKind(d)));
+    }
+
+    private static boolean readKind(Path directory) {
+        Path marker = directory.resolve(LAYOUT_FILE);
+        try {
+            String kind = Files.exists(marker)
+                    ? Files.readString(marker, StandardCharsets.UTF_8).strip()
+                    : ConfigLoader.getImageLayout();
+            return "sharded".equals(kind.toLowerCase(Locale.ROOT));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + marker, e);
+        }
+    }
+
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * Switches new images to the sharded layout and records it in the directory's marker.
+     */
+    public synchronized void switchToSharded() throws IOException {
+        Files.createDirectories(directory);
+        Files.writeString(directory.resolve(LAYOUT_FILE), "sharded\n", StandardCharsets.UTF_8);
+        sharded = true;
+    }
+
+    /**
+     * Relative path a new image of the given date is stored at.
+     */
+    public String pathFor(String date, String filename) {
+        return sharded ? shardPath(date, filename) : filename;
+    }
+
+    /**
+     * Relative path of the date's image in the sharded layout, whatever the current layout.
+     */
+    public static String shardPath(String date, String filename) {
+        return date.substring(0, 4) + "/" + date.substring(5, 7) + "/" + filename;
+    }
+
+    /**
+     * Finds an existing image of a date in either layout, current layout first. Returns
+     * its relative path, or null if it is in neither.
+     */
+    public String locate(String date, String filename) {
+        String preferred = pathFor(date, filename);
+        if (exists(preferred)) {
+            return preferred;
+        }
+        String other = sharded ? filename : shardPath(date, filename);
+        return exists(other) ? other : null;
+    }
+
+    public Path resolve(String relativePath) {
+        return directory.resolve(relativePath);
+    }
+
+    public PackStore packs() {
+        return packs;
+    }
+
+    /**
+     * Whether an image exists, loose or packed.
+     */
+    public boolean exists(String relativePath) {
+        return Files.exists(directory.resolve(relativePath)) || packs.find(relativePath) != null;
+    }
+
+    /**
+     * Whether an image is only available from a pack.
+     */
+    public boolean isPacked(String relativePath) {
+        return !Files.exists(directory.resolve(relativePath)) && packs.find(relativePath) != null;
+    }
+
+    /**
+     * Size of an image, loose or packed.
+     */
+    public long size(String relativePath) throws IOException {
+        PackStore.Located packed = packedEntry(relativePath);
+        return packed != null ? packed.entry().length() : Files.size(directory.resolve(relativePath));
+    }
+
+    /**
+     * Modification time of an image in milliseconds; packed images keep the time they had
+     * when they were packed.
+     */
+    public long lastModified(String relativePath) throws IOException {
+        PackStore.Located packed = packedEntry(relativePath);
+        return packed != null
+                ? packed.entry().modified()
+                : Files.getLastModifiedTime(directory.resolve(relativePath)).toMillis();
+    }
+
+    /**
+     * Opens an image for reading, loose or packed.
+     */
+    public InputStream open(String relativePath) throws IOException {
+        PackStore.Located packed = packedEntry(relativePath);
+        return packed != null
+                ? PackFile.inputStream(packed.pack().read(packed.entry()))
+                : Files.newInputStream(directory.resolve(relativePath));
+    }
+
+    /**
+     * Returns the pack entry to read an image from, or null when it is loose (or missing).
+     */
+    private PackStore.Located packedEntry(String relativePath) {
+        return Files.exists(directory.resolve(relativePath)) ? null : packs.find(relativePath);
+    }
+
+    /**
+     * Streams the relative paths of all images: packed images pack by pack, then loose
+     * files in the directory itself, then each yyyy/MM shard in date order. Shards are
+     * listed one at a time as the stream is consumed, and only each shard's own files are
+     * sorted. Loose copies of packed images are listed once, as packed.
+     */
+    public Stream<String> images() {
+        if (!Files.isDirectory(directory)) {
+            return Stream.empty();
+        }
+        Stream<String> packed = packs.images();
+        List<Path> top = listSorted(directory).toList();
+        Stream<String> loose = top.stream()
+                .filter(Files::isRegularFile)
+                .map(p -> p.getFileName().toString())
+                .filter(FileManager::isImageFilename);
+        Stream<String> shards = top.stream()
+                .filter(p -> YEAR.matcher(p.getFileName().toString()).matches() && Files.isDirectory(p))
+                .flatMap(year -> listSorted(year)
+                        .filter(p -> MONTH.matcher(p.getFileName().toString()).matches() && Files.isDirectory(p)))
+                .flatMap(month -> listSorted(month)
+                        .filter(Files::isRegularFile)
+                        .map(p -> directory.relativize(p).toString().replace('\\', '/'))
+                        .filter(FileManager::isImageFilename));
+        return Stream.concat(packed, Stream.concat(loose, shards).filter(name -> packs.get(name) == null));
+    }
+
+    private static Stream<Path> listSorted(Path dir) {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().toList().stream();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.frankosn.apod.storage;
+
+import com.frankosn.apod.util.FileManager;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Append-only file holding one compact JSON record per line.
+ */
+class JsonLinesFile<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonLinesFile.class);
+    private static final Gson gson = new Gson();
+
+    private final Path path;
+    private final Class<T> type;
+
+    JsonLinesFile(Path path, Class<T> type) {
+        this.path = path;
+        this.type = type;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    boolean exists() {
+        return Files.exists(path);
+    }
+
+    /**
+     * Appends a record to the end of the file, creating it if needed.
+     */
+    void append(T record) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(gson.toJson(record));
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Reads every record in file order and returns how many were read.
+     * Malformed lines are skipped.
+     */
+    int readAll(Consumer<T> consumer) throws IOException {
+        if (!exists()) {
+            return 0;
+        }
+
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    T record = gson.fromJson(line, type);
+                    if (record != null) {
+                        consumer.accept(record);
+                        count++;
+                    }
+                } catch (JsonParseException e) {
+                    // A crash while appending can leave a partial last line
+                    logger.warn("Skipping malformed record in {}", path);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Atomically replaces the file contents with the given records.
+     */
+    void rewrite(Iterable<T> records) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            for (T record : records) {
+                writer.write(gson.toJson(record));
+                writer.newLine();
+            }
+        }
+        FileManager.moveIntoPlace(tempPath, path);
+    }
+}
@@ -0,0 +1,195 @@
+package com.frankosn.apod.storage;
+
+import com.frankosn.apod.util.FileManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Moves the images of a flat archive into yyyy/MM shards.
+ * <p>
+ * Other processes keep the layout, manifest and catalog in memory, so the migration holds
+ * the directory's {@link DirectoryLock} exclusively and refuses to start while any other
+ * process has the directory open. The directory is switched to the sharded layout first,
+ * so downloads started later in this process store new images in shards. Each image is then moved (with its sidecar) and its
+ * manifest, catalog and thumbnail records are pointed at the new path. Every step is
+ * idempotent and the manifest doubles as the journal: after an interruption, running the
+ * migration again picks up where it stopped, and an image found already moved only has its
+ * records updated. Images of different dates sharing one file name are hard-linked (or
+ * copied) into each date's shard. Loose images the manifest does not know, as in archives
+ * downloaded before it existed, are first recorded in it with the date of their catalog
+ * entry or file name; those without either are left in place. Packed images stay in their
+ * packs.
+ */
+public class LayoutMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(LayoutMigration.class);
+
+    private final String imagesDir;
+    private final ImageLayout layout;
+    private final DownloadManifest manifest;
+    private final ApodCatalog catalog;
+    private final ThumbnailService thumbnails;
+
+    /**
+     * @throws IOException if another process has the directory open
+     */
+    public LayoutMigration(String imagesDir) throws IOException {
+        DirectoryLock.acquireExclusive(imagesDir);
+        this.imagesDir = imagesDir;
+        this.layout = ImageLayout.forDirectory(imagesDir);
+        this.manifest = DownloadManifest.forDirectory(imagesDir);
+        this.catalog = ApodCatalog.forDirectory(imagesDir);
+        this.thumbnails = ThumbnailService.forDirectory(imagesDir);
+    }
+
+    /**
+     * Migrates every loose image recorded in the manifest, after recording the ones it
+     * does not know yet, reporting each moved date.
+     */
+    public Report run(Consumer<String> progress) throws IOException {
+        int seeded = manifest.seedLooseImages(catalog);
+        if (seeded > 0) {
+            logger.info("Recorded {} image(s) missing from the manifest of {}", seeded, imagesDir);
+        }
+        layout.switchToSharded();
+
+        List<DownloadManifest.Entry> pending = manifest.entries().stream()
+                .filter(LayoutMigration::isLoose)
+                .filter(entry -> !layout.isPacked(entry.filename))
+                .sorted(Comparator.comparing(e -> e.date))
+                .toList();
+        Map<String, Integer> references = new HashMap<>();
+        for (DownloadManifest.Entry entry : pending) {
+            references.merge(entry.filename, 1, Integer::sum);
+        }
+        // Where each shared loose file went, to link later dates to it once it is gone
+        Map<String, Path> movedTo = new HashMap<>();
+
+        int moved = 0;
+        int inPlace = 0;
+        int missing = 0;
+        for (DownloadManifest.Entry entry : pending) {
+            String target = ImageLayout.shardPath(entry.date, entry.filename);
+            Path source = layout.resolve(entry.filename);
+            Path destination = layout.resolve(target);
+            boolean lastReference = references.merge(entry.filename, -1, Integer::sum) == 0;
+
+            if (Files.exists(destination)) {
+                // Moved by an interrupted run, or shared with an earlier date of the same month
+                moveSidecar(source, destination, lastReference);
+                if (lastReference && Files.exists(source)) {
+                    removeIfCopy(source, destination);
+                }
+                inPlace++;
+            } else if (Files.exists(source)) {
+                Files.createDirectories(destination.getParent());
+                if (lastReference) {
+                    FileManager.moveIntoPlace(source, destination);
+                } else {
+                    linkOrCopy(source, destination);
+                }
+                moveSidecar(source, destination, lastReference);
+                moved++;
+            } else if (movedTo.containsKey(entry.filename)) {
+                Files.createDirectories(destination.getParent());
+                linkOrCopy(movedTo.get(entry.filename), destination);
+                moved++;
+            } else {
+                missing++;
+                continue;
+            }
+            movedTo.put(entry.filename, destination);
+            updateRecords(entry, target);
+            progress.accept(entry.date + " -> " + target);
+        }
+
+        manifest.compact();
+        catalog.compact();
+        long loose;
+        try (Stream<String> images = FileManager.streamImages(imagesDir)) {
+            loose = images.filter(name -> name.indexOf('/') < 0 && !layout.isPacked(name)).count();
+        }
+        Report report = new Report(seeded, moved, inPlace, missing, (int) loose);
+        logger.info("Layout migration of {}: {}", imagesDir, report);
+        return report;
+    }
+
+    private void updateRecords(DownloadManifest.Entry entry, String target) throws IOException {
+        DownloadManifest.Entry updated = new DownloadManifest.Entry(entry.date, entry.status, target, entry.url,
+                entry.size);
+        updated.sha256 = entry.sha256;
+        manifest.record(updated);
+
+        ApodStorage.ApodMetadataFile metadata = catalog.get(entry.date);
+        if (metadata != null) {
+            catalog.put(new ApodStorage.ApodMetadataFile(metadata.title, metadata.explanation, metadata.date,
+                    metadata.media_type, metadata.url, metadata.hdurl, imagesDir + "/" + target));
+        }
+        thumbnails.renamed(entry.filename, target);
+    }
+
+    private static void moveSidecar(Path source, Path destination, boolean lastReference) throws IOException {
+        Path sidecar = Path.of(FileManager.getMetadataPath(source.toString()));
+        if (!Files.exists(sidecar)) {
+            return;
+        }
+        Path target = Path.of(FileManager.getMetadataPath(destination.toString()));
+        if (Files.exists(target)) {
+            return;
+        }
+        if (lastReference) {
+            FileManager.moveIntoPlace(sidecar, target);
+        } else {
+            Files.copy(sidecar, target);
+        }
+    }
+
+    /**
+     * Deletes a loose file once its shard copy is known to hold the same image.
+     */
+    private static void removeIfCopy(Path source, Path destination) throws IOException {
+        if (Files.isSameFile(source, destination)
+                || (Files.size(source) == Files.size(destination)
+                && FileManager.sha256(source).equals(FileManager.sha256(destination)))) {
+            Files.delete(source);
+        } else {
+            logger.warn("Leaving {} in place: {} holds a different image", source, destination);
+        }
+    }
+
+    private static void linkOrCopy(Path existing, Path link) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(existing, link);
+        }
+    }
+
+    private static boolean isLoose(DownloadManifest.Entry entry) {
+        return entry.filename != null && entry.date != null && entry.filename.indexOf('/') < 0
+                && (entry.status == DownloadManifest.Status.DOWNLOADED || entry.status == DownloadManifest.Status.VIDEO);
+    }
+
+    /**
+     * Outcome of a migration run: dates recorded in the manifest from their loose files,
+     * dates whose image was moved or linked into a shard, dates whose shard file already
+     * existed, manifest entries whose file is missing, and loose images left over.
+     */
+    public record Report(int seeded, int moved, int inPlace, int missing, int looseRemaining) {
+        @Override
+        public String toString() {
+            return String.format("%d recorded from loose files, %d moved, %d already in place, %d missing, "
+                    + "%d loose file(s) left", seeded, moved, inPlace, missing, looseRemaining);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.frankosn.apod.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A single file holding many archived files back to back, followed by an index of their
+ * names, offsets, sizes, modification times and CRC-32s. Packs are written once and then
+ * only read: the file is memory-mapped and each member is served as a read-only slice of
+ * the mapping, so random access to any member costs no system call.
+ * <p>
+ * Layout: magic and version, the member bytes, the index, and a trailer with the index
+ * offset and the magic again, so a truncated pack is detected on open.
+ */
+public class PackFile {
+
+    public static final String EXTENSION = ".pack";
+
+    private static final int MAGIC = 0x4150414B;
+    private static final int VERSION = 1;
+    private static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES;
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    private final Path path;
+    private final Map<String, Entry> entries;
+    // Whole-file mapping; null for packs too large for one mapping, whose members are mapped one by one
+    private final MappedByteBuffer mapping;
+
+    private PackFile(Path path, Map<String, Entry> entries, MappedByteBuffer mapping) {
+        this.path = path;
+        this.entries = entries;
+        this.mapping = mapping;
+    }
+
+    /**
+     * Opens a pack and reads its index.
+     */
+    public static PackFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 2 * Integer.BYTES + TRAILER_BYTES) {
+                throw new IOException("Not a pack file: " + path);
+            }
+            MappedByteBuffer mapping = size <= Integer.MAX_VALUE
+                    ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                    : null;
+
+            ByteBuffer trailer = map(channel, mapping, size - TRAILER_BYTES, TRAILER_BYTES);
+            long indexOffset = trailer.getLong();
+            ByteBuffer header = map(channel, mapping, 0, 2 * Integer.BYTES);
+            if (trailer.getInt() != MAGIC || header.getInt() != MAGIC || header.getInt() != VERSION
+                    || indexOffset < 2 * Integer.BYTES || indexOffset > size - TRAILER_BYTES) {
+                throw new IOException("Not a pack file or truncated: " + path);
+            }
+
+            ByteBuffer index = map(channel, mapping, indexOffset, size - TRAILER_BYTES - indexOffset);
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            try (DataInputStream in = new DataInputStream(inputStream(index))) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readInt());
+                    if (entry.offset() < 0 || entry.length() < 0 || entry.offset() + entry.length() > indexOffset) {
+                        throw new IOException("Corrupt pack index in " + path + " at " + entry.name());
+                    }
+                    entries.put(entry.name(), entry);
+                }
+            }
+            return new PackFile(path, Collections.unmodifiableMap(entries), mapping);
+        }
+    }
+
+    /**
+     * Writes a pack holding the given members, in order, to the given path.
+     */
+    public static void write(Path path, List<Member> members) throws IOException {
+        List<Entry> index = new ArrayList<>(members.size());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long offset = 2 * Integer.BYTES;
+
+            byte[] buffer = new byte[COPY_BUFFER_BYTES];
+            for (Member member : members) {
+                CRC32 crc = new CRC32();
+                long length = 0;
+                try (InputStream in = member.content().open()) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        crc.update(buffer, 0, read);
+                        out.write(buffer, 0, read);
+                        length += read;
+                    }
+                }
+                index.add(new Entry(member.name(), offset, length, member.modified(), (int) crc.getValue()));
+                offset += length;
+            }
+
+            out.writeInt(index.size());
+            for (Entry entry : index) {
+                out.writeUTF(entry.name());
+                out.writeLong(entry.offset());
+                out.writeLong(entry.length());
+                out.writeLong(entry.modified());
+                out.writeInt(entry.crc());
+            }
+            out.writeLong(offset);
+            out.writeInt(MAGIC);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the entry of a member, or null if the pack does not hold it.
+     */
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Returns all entries in pack order.
+     */
+    public List<Entry> entries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Returns the bytes of a member as a read-only view of the mapped pack.
+     */
+    public ByteBuffer read(Entry entry) throws IOException {
+        if (mapping != null) {
+            return mapping.slice((int) entry.offset(), (int) entry.length()).asReadOnlyBuffer();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return map(channel, null, entry.offset(), entry.length());
+        }
+    }
+
+    /**
+     * Whether a member's bytes still match the CRC-32 recorded when it was packed.
+     */
+    public boolean verify(Entry entry) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(read(entry));
+        return (int) crc.getValue() == entry.crc();
+    }
+
+    private static ByteBuffer map(FileChannel channel, MappedByteBuffer mapping, long offset, long length)
+            throws IOException {
+        if (mapping != null) {
+            return mapping.slice((int) offset, (int) length).asReadOnlyBuffer();
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    /**
+     * Returns a stream over the remaining bytes of a buffer, leaving the buffer itself untouched.
+     */
+    public static InputStream inputStream(ByteBuffer buffer) {
+        ByteBuffer source = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return source.hasRemaining() ? source.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if (length == 0) {
+                    return 0;
+                }
+                if (!source.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(length, source.remaining());
+                source.get(bytes, offset, count);
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return source.remaining();
+            }
+
+            @Override
+            public long skip(long n) {
+                int count = (int) Math.max(0, Math.min(n, source.remaining()));
+                source.position(source.position() + count);
+                return count;
+            }
+
+        };
+    }
+
+    /**
+     * Index record of one packed file. The modification time is the one the file had
+     * before it was packed.
+     */
+    public record Entry(String name, long offset, long length, long modified, int crc) {
+    }
+
+    /**
+     * A file to be packed: its name in the pack, its modification time and its content.
+     */
+    public record Member(String name, long modified, Content content) {
+    }
+
+    /**
+     * Source of a member's bytes, opened while the pack is written.
+     */
+    public interface Content {
+        InputStream open() throws IOException;
+    }
+}
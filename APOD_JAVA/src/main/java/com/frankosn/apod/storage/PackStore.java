@@ -0,0 +1,161 @@
+package com.frankosn.apod.storage;
+
+import com.frankosn.apod.util.FileManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * The {@link PackFile packs} of an images directory, one per archived year in
+ * {@value #PACK_DIR}/&lt;year&gt;{@value PackFile#EXTENSION}, with a combined index from file
+ * name (as recorded in the manifest) to pack entry. Packs written by another process, e.g.
+ * a "pack" run next to the gallery server, are picked up when a lookup misses and the pack
+ * directory has changed since it was last read.
+ */
+public class PackStore {
+
+    public static final String PACK_DIR = ".packs";
+
+    private static final Logger logger = LoggerFactory.getLogger(PackStore.class);
+    private static final Map<Path, PackStore> stores = new ConcurrentHashMap<>();
+
+    private final Path packDir;
+    private volatile Snapshot snapshot = new Snapshot(-1, List.of(), Map.of());
+
+    private PackStore(Path directory) {
+        this.packDir = directory.resolve(PACK_DIR);
+    }
+
+    /**
+     * Returns the packs of an images directory.
+     */
+    public static PackStore forDirectory(String imagesDir) {
+        Path directory = Paths.get(imagesDir).toAbsolutePath().normalize();
+        return stores.computeIfAbsent(directory, d -> {
+            PackStore store = new PackStore(d);
+            store.refresh();
+            return store;
+        });
+    }
+
+    /**
+     * Path of the pack of a year.
+     */
+    public Path packPath(int year) {
+        return packDir.resolve(year + PackFile.EXTENSION);
+    }
+
+    /**
+     * Finds a packed file by name without checking for new packs, or returns null.
+     */
+    public Located get(String name) {
+        return snapshot.byName().get(name);
+    }
+
+    /**
+     * Finds a packed file by name, re-reading the packs first if it is not known and the
+     * pack directory has changed. Returns null if no pack holds it.
+     */
+    public Located find(String name) {
+        Located located = get(name);
+        if (located == null && refresh()) {
+            located = get(name);
+        }
+        return located;
+    }
+
+    /**
+     * Returns the packs in year order.
+     */
+    public List<PackFile> packs() {
+        return snapshot.packs();
+    }
+
+    /**
+     * Streams the names of all packed images, pack by pack in year order.
+     */
+    public Stream<String> images() {
+        refresh();
+        Snapshot current = snapshot;
+        return current.packs().stream()
+                .flatMap(pack -> pack.entries().stream()
+                        .map(PackFile.Entry::name)
+                        .filter(FileManager::isImageFilename)
+                        .filter(name -> current.byName().get(name).pack() == pack));
+    }
+
+    /**
+     * Re-reads the packs if the pack directory changed since they were last read. Returns
+     * whether they were re-read.
+     */
+    public synchronized boolean refresh() {
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(packDir).toMillis();
+        } catch (NoSuchFileException e) {
+            modified = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (modified == snapshot.modified()) {
+            return false;
+        }
+        snapshot = load(modified);
+        return true;
+    }
+
+    /**
+     * Re-reads the packs unconditionally, e.g. right after one was written.
+     */
+    public synchronized void reload() {
+        snapshot = new Snapshot(-1, snapshot.packs(), snapshot.byName());
+        refresh();
+    }
+
+    private Snapshot load(long modified) {
+        List<PackFile> packs = new ArrayList<>();
+        Map<String, Located> byName = new HashMap<>();
+        if (Files.isDirectory(packDir)) {
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(packDir)) {
+                files = listing.filter(p -> p.getFileName().toString().endsWith(PackFile.EXTENSION)).sorted().toList();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (Path file : files) {
+                try {
+                    PackFile pack = PackFile.open(file);
+                    packs.add(pack);
+                    for (PackFile.Entry entry : pack.entries()) {
+                        // Older years win, so a name shared across years keeps resolving to one copy
+                        byName.putIfAbsent(entry.name(), new Located(pack, entry));
+                    }
+                } catch (IOException e) {
+                    logger.warn("Skipping unreadable pack {}: {}", file, e.getMessage());
+                }
+            }
+        }
+        return new Snapshot(modified, List.copyOf(packs), byName);
+    }
+
+    /**
+     * A packed file: the pack holding it and its index entry.
+     */
+    public record Located(PackFile pack, PackFile.Entry entry) {
+    }
+
+    private record Snapshot(long modified, List<PackFile> packs, Map<String, Located> byName) {
+    }
+}
@@ -0,0 +1,592 @@
+package com.frankosn.apod.storage;
+
+import com.frankosn.apod.util.FileManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index over the titles and explanations in an images directory's catalog,
+ * supporting BM25-ranked term queries and "quoted phrase" queries.
+ * <p>
+ * Documents are keyed by the epoch day of their APOD date. Entries are indexed as they
+ * are saved and the index is persisted to {@value #INDEX_FILE} with delta/varint-encoded
+ * postings every {@value #FLUSH_EVERY} changes and at exit. On load the persisted index
+ * is reconciled with the catalog, so only entries changed since the last write are
+ * re-indexed.
+ */
+public class SearchIndex {
+
+    public static final String INDEX_FILE = "search.idx";
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+    private static final Map<Path, SearchIndex> indexes = new ConcurrentHashMap<>();
+    private static final int MAGIC = 0x41504958;
+    private static final int VERSION = 1;
+    private static final int FLUSH_EVERY = 500;
+    // Explanation positions start here, so phrases never span the title and the explanation
+    private static final int EXPLANATION_OFFSET = 1 << 20;
+    private static final double TITLE_BOOST = 3.0;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final Pattern QUERY_CLAUSE = Pattern.compile("\"([^\"]*)\"?|(\\S+)");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "in", "is", "it", "its",
+            "of", "on", "or", "that", "the", "this", "to", "was", "with");
+
+    private final Path file;
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Integer, Doc> docs = new HashMap<>();
+    private long totalLength;
+    private int unsaved;
+
+    private SearchIndex(Path directory) {
+        this.file = directory.resolve(INDEX_FILE);
+    }
+
+    /**
+     * Returns the search index of an images directory, loading it and bringing it up to
+     * date with the catalog on first use.
+     */
+    public static SearchIndex forDirectory(String imagesDir) throws IOException {
+        Path directory = Paths.get(imagesDir).toAbsolutePath().normalize();
+        SearchIndex index = indexes.get(directory);
+        if (index == null) {
+            synchronized (indexes) {
+                index = indexes.get(directory);
+                if (index == null) {
+                    index = new SearchIndex(directory);
+                    index.load(ApodCatalog.forDirectory(directory.toString()));
+                    indexes.put(directory, index);
+                    SearchIndex created = index;
+                    Runtime.getRuntime().addShutdownHook(new Thread(created::flushQuietly));
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Indexes or re-indexes a catalog entry. Unchanged entries are ignored.
+     */
+    public synchronized void add(ApodStorage.ApodMetadataFile metadata) throws IOException {
+        if (index(metadata) && ++unsaved >= FLUSH_EVERY) {
+            flush();
+        }
+    }
+
+    /**
+     * Runs a query and returns up to limit hits, best first. Bare words are ranked with
+     * BM25 (title matches weigh more); every "quoted phrase" must occur in a hit.
+     */
+    public synchronized List<Hit> search(String query, int limit) {
+        List<List<QueryTerm>> phrases = new ArrayList<>();
+        List<String> terms = new ArrayList<>();
+        Matcher matcher = QUERY_CLAUSE.matcher(query);
+        while (matcher.find()) {
+            boolean quoted = matcher.group(1) != null;
+            List<QueryTerm> clause = queryTerms(quoted ? matcher.group(1) : matcher.group(2));
+            if (clause.size() > 1 || (quoted && !clause.isEmpty())) {
+                phrases.add(clause);
+            } else if (clause.size() == 1) {
+                terms.add(clause.get(0).term());
+            }
+        }
+
+        Map<Integer, Double> scores = new HashMap<>();
+        if (!phrases.isEmpty()) {
+            Set<Integer> required = null;
+            for (List<QueryTerm> phrase : phrases) {
+                Map<Integer, Double> phraseScores = scorePhrase(phrase);
+                if (required == null) {
+                    required = new HashSet<>(phraseScores.keySet());
+                } else {
+                    required.retainAll(phraseScores.keySet());
+                }
+                phraseScores.forEach((doc, score) -> scores.merge(doc, score, Double::sum));
+            }
+            scores.keySet().retainAll(required);
+        }
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                continue;
+            }
+            double idf = idf(list.size);
+            for (int i = 0; i < list.size; i++) {
+                int doc = list.docs[i];
+                if (phrases.isEmpty() || scores.containsKey(doc)) {
+                    scores.merge(doc, idf * bm25(weightedFrequency(list.positions[i]), doc), Double::sum);
+                }
+            }
+        }
+
+        return topHits(scores, limit);
+    }
+
+    /**
+     * Picks the best scores with a bounded heap rather than sorting every match.
+     */
+    private static List<Hit> topHits(Map<Integer, Double> scores, int limit) {
+        Comparator<Map.Entry<Integer, Double>> ranking = Map.Entry.<Integer, Double>comparingByValue()
+                .thenComparing(Map.Entry.<Integer, Double>comparingByKey().reversed());
+        PriorityQueue<Map.Entry<Integer, Double>> best = new PriorityQueue<>(ranking);
+        for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+            if (best.size() < limit) {
+                best.add(entry);
+            } else if (limit > 0 && ranking.compare(entry, best.peek()) > 0) {
+                best.poll();
+                best.add(entry);
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            Map.Entry<Integer, Double> entry = best.poll();
+            hits.add(new Hit(LocalDate.ofEpochDay(entry.getKey()).toString(), entry.getValue()));
+        }
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    /**
+     * Number of indexed entries.
+     */
+    public synchronized int size() {
+        return docs.size();
+    }
+
+    /**
+     * Writes the index to disk if it changed since the last write.
+     */
+    public synchronized void flush() throws IOException {
+        if (unsaved == 0 && Files.exists(file)) {
+            return;
+        }
+
+        Path tempPath = file.resolveSibling(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(docs.size());
+            for (Map.Entry<Integer, Doc> entry : docs.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeLong(entry.getValue().hash());
+                writeVarInt(out, entry.getValue().length());
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+                Postings list = entry.getValue();
+                out.writeUTF(entry.getKey());
+                writeVarInt(out, list.size);
+                int previousDoc = 0;
+                for (int i = 0; i < list.size; i++) {
+                    writeVarInt(out, list.docs[i] - previousDoc);
+                    previousDoc = list.docs[i];
+                    int[] positions = list.positions[i];
+                    writeVarInt(out, positions.length);
+                    int previousPosition = 0;
+                    for (int position : positions) {
+                        writeVarInt(out, position - previousPosition);
+                        previousPosition = position;
+                    }
+                }
+            }
+        }
+        FileManager.moveIntoPlace(tempPath, file);
+        unsaved = 0;
+        logger.debug("Saved search index with {} entries to {}", docs.size(), file);
+    }
+
+    private void flushQuietly() {
+        if (!Files.isDirectory(file.getParent())) {
+            // The images directory was removed, e.g. a load test's scratch directory
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.warn("Could not save search index {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the persisted index, then indexes catalog entries that are new or changed and
+     * drops entries no longer in the catalog.
+     */
+    private synchronized void load(ApodCatalog catalog) throws IOException {
+        if (Files.exists(file)) {
+            try {
+                read();
+            } catch (IOException e) {
+                logger.warn("Rebuilding unreadable search index {}: {}", file, e.getMessage());
+                postings.clear();
+                docs.clear();
+                totalLength = 0;
+            }
+        }
+
+        Set<Integer> catalogued = new HashSet<>();
+        int changed = 0;
+        for (ApodStorage.ApodMetadataFile metadata : catalog.entries()) {
+            Integer id = docId(metadata.date);
+            if (id != null) {
+                catalogued.add(id);
+                if (index(metadata)) {
+                    changed++;
+                }
+            }
+        }
+        for (Integer id : new ArrayList<>(docs.keySet())) {
+            if (!catalogued.contains(id)) {
+                remove(id);
+                changed++;
+            }
+        }
+
+        unsaved += changed;
+        if (changed > 0) {
+            logger.info("Indexed {} changed catalog entries", changed);
+            flush();
+        }
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a search index of this version");
+            }
+
+            int docCount = in.readInt();
+            Map<Integer, Long> hashes = new HashMap<>();
+            Map<Integer, Integer> lengths = new HashMap<>();
+            for (int i = 0; i < docCount; i++) {
+                int id = in.readInt();
+                hashes.put(id, in.readLong());
+                lengths.put(id, readVarInt(in));
+            }
+
+            Map<Integer, List<String>> docTerms = new HashMap<>();
+            int termCount = in.readInt();
+            for (int t = 0; t < termCount; t++) {
+                String term = in.readUTF();
+                int size = readVarInt(in);
+                Postings list = new Postings(size);
+                int doc = 0;
+                for (int i = 0; i < size; i++) {
+                    doc += readVarInt(in);
+                    int[] positions = new int[readVarInt(in)];
+                    int position = 0;
+                    for (int p = 0; p < positions.length; p++) {
+                        position += readVarInt(in);
+                        positions[p] = position;
+                    }
+                    list.docs[i] = doc;
+                    list.positions[i] = positions;
+                    docTerms.computeIfAbsent(doc, d -> new ArrayList<>()).add(term);
+                }
+                list.size = size;
+                postings.put(term, list);
+            }
+
+            for (Map.Entry<Integer, Long> entry : hashes.entrySet()) {
+                int id = entry.getKey();
+                int length = lengths.get(id);
+                String[] terms = docTerms.getOrDefault(id, List.of()).toArray(String[]::new);
+                docs.put(id, new Doc(entry.getValue(), length, terms));
+                totalLength += length;
+            }
+        }
+    }
+
+    /**
+     * Adds an entry to the in-memory index, replacing an older version of it. Returns
+     * whether anything changed.
+     */
+    private boolean index(ApodStorage.ApodMetadataFile metadata) {
+        Integer id = docId(metadata.date);
+        if (id == null) {
+            return false;
+        }
+        long hash = contentHash(metadata);
+        Doc existing = docs.get(id);
+        if (existing != null && existing.hash() == hash) {
+            return false;
+        }
+        if (existing != null) {
+            remove(id);
+        }
+
+        Map<String, List<Integer>> termPositions = new HashMap<>();
+        int length = addField(termPositions, metadata.title, 0)
+                + addField(termPositions, metadata.explanation, EXPLANATION_OFFSET);
+        for (Map.Entry<String, List<Integer>> entry : termPositions.entrySet()) {
+            int[] positions = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            postings.computeIfAbsent(entry.getKey(), t -> new Postings(4)).put(id, positions);
+        }
+        docs.put(id, new Doc(hash, length, termPositions.keySet().toArray(String[]::new)));
+        totalLength += length;
+        return true;
+    }
+
+    private void remove(int id) {
+        Doc doc = docs.remove(id);
+        if (doc == null) {
+            return;
+        }
+        for (String term : doc.terms()) {
+            Postings list = postings.get(term);
+            if (list != null && list.remove(id) && list.size == 0) {
+                postings.remove(term);
+            }
+        }
+        totalLength -= doc.length();
+    }
+
+    /**
+     * Adds the words of a field at consecutive positions from the offset, skipping stop
+     * words but keeping their positions. Returns the number of indexed words.
+     */
+    private static int addField(Map<String, List<Integer>> termPositions, String text, int offset) {
+        String[] words = tokenize(text);
+        int indexed = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (!STOP_WORDS.contains(words[i])) {
+                termPositions.computeIfAbsent(words[i], t -> new ArrayList<>()).add(offset + i);
+                indexed++;
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * Scores the documents containing the phrase, keyed by document.
+     */
+    private Map<Integer, Double> scorePhrase(List<QueryTerm> phrase) {
+        Map<Integer, Double> scores = new HashMap<>();
+        Postings[] lists = new Postings[phrase.size()];
+        double idf = 0;
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.get(phrase.get(i).term());
+            if (lists[i] == null) {
+                return scores;
+            }
+            idf += idf(lists[i].size);
+        }
+
+        // Walk the rarest term's documents and probe the others
+        int rarest = 0;
+        for (int i = 1; i < lists.length; i++) {
+            if (lists[i].size < lists[rarest].size) {
+                rarest = i;
+            }
+        }
+        Postings driver = lists[rarest];
+        int driverOffset = phrase.get(rarest).offset();
+        for (int d = 0; d < driver.size; d++) {
+            int doc = driver.docs[d];
+            int[][] positions = new int[lists.length][];
+            boolean inAll = true;
+            for (int i = 0; i < lists.length && inAll; i++) {
+                int at = lists[i].find(doc);
+                inAll = at >= 0;
+                positions[i] = inAll ? lists[i].positions[at] : null;
+            }
+            if (!inAll) {
+                continue;
+            }
+
+            double frequency = 0;
+            for (int start : driver.positions[d]) {
+                int base = start - driverOffset;
+                boolean match = true;
+                for (int i = 0; i < lists.length && match; i++) {
+                    match = Arrays.binarySearch(positions[i], base + phrase.get(i).offset()) >= 0;
+                }
+                if (match) {
+                    frequency += base < EXPLANATION_OFFSET ? TITLE_BOOST : 1;
+                }
+            }
+            if (frequency > 0) {
+                scores.put(doc, idf * bm25(frequency, doc));
+            }
+        }
+        return scores;
+    }
+
+    private double idf(int documentFrequency) {
+        return Math.log(1 + (docs.size() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    private double bm25(double frequency, int doc) {
+        double averageLength = docs.isEmpty() ? 1 : (double) totalLength / docs.size();
+        double length = docs.get(doc).length();
+        return frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+    }
+
+    private static double weightedFrequency(int[] positions) {
+        double frequency = 0;
+        for (int position : positions) {
+            frequency += position < EXPLANATION_OFFSET ? TITLE_BOOST : 1;
+        }
+        return frequency;
+    }
+
+    /**
+     * Splits a query clause into indexed terms with their offsets within the clause.
+     */
+    private static List<QueryTerm> queryTerms(String text) {
+        String[] words = tokenize(text);
+        List<QueryTerm> terms = new ArrayList<>();
+        for (int i = 0; i < words.length; i++) {
+            if (!STOP_WORDS.contains(words[i])) {
+                terms.add(new QueryTerm(words[i], i));
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Lower-cases text, strips accents and splits it into words.
+     */
+    static String[] tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return new String[0];
+        }
+        String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return Arrays.stream(NON_WORD.split(folded.toLowerCase(Locale.ROOT)))
+                .filter(word -> !word.isEmpty())
+                .toArray(String[]::new);
+    }
+
+    private static Integer docId(String date) {
+        if (date == null) {
+            return null;
+        }
+        try {
+            return (int) LocalDate.parse(date).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the indexed fields, used to detect changed entries.
+     */
+    private static long contentHash(ApodStorage.ApodMetadataFile metadata) {
+        long hash = 0xcbf29ce484222325L;
+        String text = metadata.title + "\u0000" + metadata.explanation;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * A search result: the APOD date and its relevance score.
+     */
+    public record Hit(String date, double score) {
+    }
+
+    private record QueryTerm(String term, int offset) {
+    }
+
+    private record Doc(long hash, int length, String[] terms) {
+    }
+
+    /**
+     * Documents containing a term, sorted by id, with the term's positions in each.
+     */
+    private static class Postings {
+        int size;
+        int[] docs;
+        int[][] positions;
+
+        Postings(int capacity) {
+            docs = new int[Math.max(capacity, 1)];
+            positions = new int[docs.length][];
+        }
+
+        int find(int doc) {
+            return Arrays.binarySearch(docs, 0, size, doc);
+        }
+
+        void put(int doc, int[] docPositions) {
+            int at = find(doc);
+            if (at >= 0) {
+                positions[at] = docPositions;
+                return;
+            }
+            at = -at - 1;
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            System.arraycopy(docs, at, docs, at + 1, size - at);
+            System.arraycopy(positions, at, positions, at + 1, size - at);
+            docs[at] = doc;
+            positions[at] = docPositions;
+            size++;
+        }
+
+        boolean remove(int doc) {
+            int at = find(doc);
+            if (at < 0) {
+                return false;
+            }
+            System.arraycopy(docs, at + 1, docs, at, size - at - 1);
+            System.arraycopy(positions, at + 1, positions, at, size - at - 1);
+            size--;
+            positions[size] = null;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.frankosn.apod.storage;
+
+import com.frankosn.apod.config.ConfigLoader;
+import com.frankosn.apod.util.FileManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates JPEG thumbnails of archived images on a fork-join pool and caches them in
+ * {@value #THUMBNAIL_DIR}, named after the SHA-256 of the source and the thumbnail size.
+ * Source hashes are remembered together with the file size and modification time, so a
+ * thumbnail is only regenerated when its source actually changes.
+ */
+public class ThumbnailService {
+
+    public static final String THUMBNAIL_DIR = ".thumbs";
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+    private static final String SOURCES_FILE = "sources.ndjson";
+    private static final long CLOSE_TIMEOUT_MINUTES = 5;
+    private static final Map<Path, ThumbnailService> services = new ConcurrentHashMap<>();
+
+    private final Path imagesDir;
+    private final ImageLayout layout;
+    private final Path thumbnailDir;
+    private final int maxDimension;
+    private final ForkJoinPool pool;
+    private final JsonLinesFile<SourceRecord> sourcesFile;
+    private final Map<String, SourceRecord> sources = new ConcurrentHashMap<>();
+
+    private ThumbnailService(Path imagesDir, int maxDimension, int parallelism) {
+        this.imagesDir = imagesDir;
+        this.layout = ImageLayout.forDirectory(imagesDir.toString());
+        this.thumbnailDir = imagesDir.resolve(THUMBNAIL_DIR);
+        this.maxDimension = maxDimension;
+        this.pool = new ForkJoinPool(parallelism);
+        this.sourcesFile = new JsonLinesFile<>(thumbnailDir.resolve(SOURCES_FILE), SourceRecord.class);
+    }
+
+    /**
+     * Returns the thumbnail service of an images directory, configured from the
+     * APOD_THUMBNAIL_* settings.
+     */
+    public static ThumbnailService forDirectory(String imagesDir) throws IOException {
+        Path directory = Paths.get(imagesDir).toAbsolutePath().normalize();
+        ThumbnailService service = services.get(directory);
+        if (service == null) {
+            synchronized (services) {
+                service = services.get(directory);
+                if (service == null) {
+                    service = new ThumbnailService(directory, ConfigLoader.getThumbnailSize(),
+                            ConfigLoader.getThumbnailParallelism());
+                    service.loadSources();
+                    services.put(directory, service);
+                }
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Closes the service of every directory, writing the thumbnails still queued. Must be
+     * called before the process exits, since the pool's threads do not keep it alive.
+     */
+    public static void closeAll() throws InterruptedException {
+        synchronized (services) {
+            for (ThumbnailService service : services.values()) {
+                service.close();
+            }
+            services.clear();
+        }
+    }
+
+    /**
+     * Stops accepting thumbnails and waits for the queued ones to be written.
+     */
+    public void close() throws InterruptedException {
+        pool.shutdown();
+        if (!pool.awaitTermination(CLOSE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+            logger.warn("Thumbnails for {} still pending after {} minutes, abandoning them",
+                    imagesDir, CLOSE_TIMEOUT_MINUTES);
+        }
+    }
+
+    private void loadSources() throws IOException {
+        sourcesFile.readAll(record -> sources.put(record.filename, record));
+    }
+
+    /**
+     * Queues thumbnail generation for a freshly stored image. The SHA-256 may be passed
+     * when already known, saving a re-read of the file.
+     */
+    public CompletableFuture<Outcome> generateAsync(String filename, String sha256) {
+        return CompletableFuture.supplyAsync(() -> generateSafely(filename, sha256), pool);
+    }
+
+    /**
+     * Generates thumbnails for all given images in parallel, waiting for completion.
+     */
+    public BatchResult generateAll(List<String> filenames) throws InterruptedException {
+        try {
+            List<Outcome> outcomes = pool.submit(() -> filenames.parallelStream()
+                    .map(filename -> generateSafely(filename, null))
+                    .toList()).get();
+            return new BatchResult(
+                    count(outcomes, Outcome.GENERATED),
+                    count(outcomes, Outcome.UP_TO_DATE),
+                    count(outcomes, Outcome.FAILED));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Thumbnail generation failed", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the cached thumbnail of an image, or null if none was generated yet
+     * or the source has changed since.
+     */
+    public Path findThumbnail(String filename) throws IOException {
+        SourceRecord record = sources.get(filename);
+        if (record == null || !layout.exists(filename) || !record.matches(layout, filename)) {
+            return null;
+        }
+        Path thumbnail = thumbnailPath(record.sha256);
+        return Files.exists(thumbnail) ? thumbnail : null;
+    }
+
+    /**
+     * Carries the remembered hash of an image over to its new path after it was moved,
+     * e.g. by a layout migration, so its thumbnail is found without re-hashing.
+     */
+    public void renamed(String from, String to) throws IOException {
+        SourceRecord record = sources.remove(from);
+        if (record != null) {
+            SourceRecord moved = new SourceRecord(to, record.size, record.modified, record.sha256);
+            sources.put(to, moved);
+            synchronized (sourcesFile) {
+                sourcesFile.append(moved);
+            }
+        }
+    }
+
+    private Outcome generateSafely(String filename, String sha256) {
+        try {
+            return generate(filename, sha256);
+        } catch (Exception e) {
+            logger.debug("Could not generate thumbnail for " + filename, e);
+            return Outcome.FAILED;
+        }
+    }
+
+    private Outcome generate(String filename, String knownSha256) throws IOException {
+        String sha256 = sourceHash(filename, knownSha256);
+        Path thumbnail = thumbnailPath(sha256);
+        if (Files.exists(thumbnail)) {
+            return Outcome.UP_TO_DATE;
+        }
+
+        BufferedImage image = readImage(filename);
+        if (image == null) {
+            throw new IOException("Unsupported image format: " + filename);
+        }
+
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        Files.createDirectories(thumbnailDir);
+        Path tempPath = thumbnailDir.resolve(thumbnail.getFileName() + "." + Thread.currentThread().threadId() + ".tmp");
+        if (!ImageIO.write(scaled, "jpg", tempPath.toFile())) {
+            throw new IOException("No JPEG writer available");
+        }
+        FileManager.moveIntoPlace(tempPath, thumbnail);
+        return Outcome.GENERATED;
+    }
+
+    /**
+     * Decodes a source image, from its file when loose or from the mapped pack otherwise.
+     */
+    private BufferedImage readImage(String filename) throws IOException {
+        Path source = imagesDir.resolve(filename);
+        if (Files.exists(source)) {
+            return ImageIO.read(source.toFile());
+        }
+        try (InputStream in = layout.open(filename)) {
+            return ImageIO.read(new MemoryCacheImageInputStream(in));
+        }
+    }
+
+    /**
+     * Returns the hash of a source image, reusing the remembered one while the file's size
+     * and modification time are unchanged.
+     */
+    private String sourceHash(String filename, String knownSha256) throws IOException {
+        SourceRecord record = sources.get(filename);
+        if (record != null && record.matches(layout, filename)) {
+            return record.sha256;
+        }
+
+        String sha256 = knownSha256;
+        if (sha256 == null) {
+            try (InputStream in = layout.open(filename)) {
+                sha256 = FileManager.sha256(in);
+            }
+        }
+        SourceRecord updated = new SourceRecord(filename, layout.size(filename), layout.lastModified(filename),
+                sha256);
+        sources.put(filename, updated);
+        synchronized (sourcesFile) {
+            sourcesFile.append(updated);
+        }
+        return sha256;
+    }
+
+    private Path thumbnailPath(String sha256) {
+        return thumbnailDir.resolve(sha256 + "_" + maxDimension + ".jpg");
+    }
+
+    private static int count(List<Outcome> outcomes, Outcome outcome) {
+        return (int) outcomes.stream().filter(o -> o == outcome).count();
+    }
+
+    /**
+     * Result of generating one thumbnail.
+     */
+    public enum Outcome {
+        GENERATED,
+        UP_TO_DATE,
+        FAILED
+    }
+
+    /**
+     * Totals of a batch run.
+     */
+    public record BatchResult(int generated, int upToDate, int failed) {
+    }
+
+    /**
+     * Remembered hash of a source image, valid while its size and modification time match.
+     */
+    static class SourceRecord {
+        String filename;
+        long size;
+        long modified;
+        String sha256;
+
+        SourceRecord(String filename, long size, long modified, String sha256) {
+            this.filename = filename;
+            this.size = size;
+            this.modified = modified;
+            this.sha256 = sha256;
+        }
+
+        boolean matches(ImageLayout layout, String filename) throws IOException {
+            return layout.size(filename) == size && layout.lastModified(filename) == modified;
+        }
+    }
+}
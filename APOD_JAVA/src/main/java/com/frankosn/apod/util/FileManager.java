@@ -1,17 +1,55 @@
 package com.frankosn.apod.util;
 
+import com.frankosn.apod.http.BandwidthLimiter;
+import com.frankosn.apod.http.HttpClients;
+import com.frankosn.apod.http.HttpStatusException;
+import com.frankosn.apod.http.MetricsInterceptor;
+import com.frankosn.apod.http.RetryPolicy;
+import com.frankosn.apod.metrics.Counter;
+import com.frankosn.apod.metrics.Histogram;
+import com.frankosn.apod.metrics.Metrics;
+import com.frankosn.apod.storage.ImageLayout;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
 import java.io.*;
 import java.net.URI;
-import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 
 /**
  * Utility class for managing file operations (download, save, etc).
  */
 public class FileManager {
 
+    private static final String PART_SUFFIX = ".part";
+    private static final RetryPolicy retryPolicy = RetryPolicy.fromConfig();
+    private static final OkHttpClient client = HttpClients.shared().newBuilder()
+            .addNetworkInterceptor(new MetricsInterceptor("image"))
+            .build();
+    private static final BandwidthLimiter bandwidth = BandwidthLimiter.shared();
+    private static final Counter bytesReceived = Metrics.counter("apod_image_bytes_total",
+            "Image bytes received from the network");
+    private static final Histogram downloadLatency = Metrics.latency("apod_image_download_duration_seconds",
+            "Time to download one image, including retries");
+    private static final int TRANSFER_BUFFER_BYTES = 64 * 1024;
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_PARTIAL = 206;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
     /**
      * Ensures the images directory exists.
      */
@@ -47,21 +85,244 @@ public class FileManager {
     }
 
     /**
-     * Downloads an image from URL and saves it to the specified filepath.
+     * Downloads an image from URL and saves it to the specified filepath, returning the
+     * SHA-256 of its content as lowercase hex. Bytes are streamed through the shared HTTP
+     * client into a ".part" file next to the target, which is resumed with HTTP Range
+     * requests when a transient failure is retried, and only renamed into place once the
+     * received size matches the announced Content-Length. Resumed requests carry If-Range
+     * with the validator of the first response, so a file changed in between is sent
+     * whole; a part file left by an earlier run has no validator and is started over.
+     */
+    public static String downloadFile(String imageUrl, String filepath) throws IOException {
+        HttpUrl url = HttpUrl.parse(imageUrl);
+        if (url == null) {
+            throw new IOException("Invalid URL: " + imageUrl);
+        }
+
+        Path target = Paths.get(filepath);
+        Path partPath = getPartPath(target);
+        MessageDigest digest = newSha256();
+        String[] validator = new String[1];
+
+        // Each retry resumes from whatever the previous attempts left in the part file
+        long started = System.nanoTime();
+        retryPolicy.execute("Download " + imageUrl, RetryPolicy.breakerFor(url), () -> {
+            transferToPart(url, partPath, digest, validator);
+            return null;
+        });
+        moveIntoPlace(partPath, target);
+        downloadLatency.observeSince(started);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Computes the SHA-256 of a file as lowercase hex.
+     */
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest = newSha256();
+        updateDigest(digest, file, Files.size(file));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Computes the SHA-256 of the remaining bytes of a stream as lowercase hex.
+     */
+    public static String sha256(InputStream in) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[TRANSFER_BUFFER_BYTES];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Returns the temporary path used while a file is being downloaded.
+     */
+    public static Path getPartPath(Path target) {
+        return target.resolveSibling(target.getFileName() + PART_SUFFIX);
+    }
+
+    /**
+     * Transfers the remote file into the part file, resuming from its current size, and
+     * leaves the digest holding the hash of the whole part file. The response body is handed
+     * to {@link FileChannel#transferFrom} through a {@link DigestChannel}, which hashes the
+     * bytes as they pass without an extra copy loop. Each chunk waits for the shared
+     * {@link BandwidthLimiter} before the next one is transferred.
+     * The validator holds the ETag or Last-Modified of the first response, sent as If-Range
+     * when resuming.
+     */
+    private static void transferToPart(HttpUrl url, Path partPath, MessageDigest digest,
+                                       String[] validator) throws IOException {
+        long offset = Files.exists(partPath) ? Files.size(partPath) : 0;
+        if (offset > 0 && validator[0] == null) {
+            // Nothing proves the bytes kept belong to the current remote file
+            offset = 0;
+        }
+
+        Request.Builder request = new Request.Builder().url(url);
+        if (offset > 0) {
+            request.header("Range", "bytes=" + offset + "-");
+            request.header("If-Range", validator[0]);
+        }
+
+        try (Response response = client.newCall(request.build()).execute()) {
+            int status = response.code();
+            if (status == HTTP_RANGE_NOT_SATISFIABLE) {
+                // The part file does not match the remote file anymore; start over
+                Files.deleteIfExists(partPath);
+                throw new IOException("Range not satisfiable, restarting download");
+            }
+            if (status != HTTP_OK && status != HTTP_PARTIAL) {
+                throw new HttpStatusException("Failed to download image", status);
+            }
+
+            if (offset > 0 && status != HTTP_PARTIAL) {
+                // Server ignored the Range header, or the file changed, and sent it whole
+                offset = 0;
+            }
+            if (status == HTTP_PARTIAL && rangeStart(response.header("Content-Range")) != offset) {
+                // The part does not continue where the file ends; start over
+                Files.deleteIfExists(partPath);
+                validator[0] = null;
+                throw new IOException("Unexpected Content-Range " + response.header("Content-Range")
+                        + " resuming at " + offset + ", restarting download");
+            }
+            if (status == HTTP_OK) {
+                validator[0] = resumeValidator(response);
+            }
+
+            // Bring the digest up to date with the bytes kept from earlier attempts
+            digest.reset();
+            if (offset > 0) {
+                updateDigest(digest, partPath, offset);
+            }
+
+            ResponseBody body = response.body();
+            long expectedLength = body.contentLength();
+            long position = offset;
+            DigestChannel source = new DigestChannel(body.source(), digest);
+
+            try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(offset);
+                long transferred;
+                while ((transferred = channel.transferFrom(source, position, TRANSFER_BUFFER_BYTES)) > 0) {
+                    position += transferred;
+                    bandwidth.acquire((int) transferred);
+                    bytesReceived.add(transferred);
+                }
+            }
+
+            long written = position - offset;
+            if (expectedLength >= 0 && written != expectedLength) {
+                throw new IOException(String.format("Incomplete download: received %d of %d bytes",
+                        position, offset + expectedLength));
+            }
+        }
+    }
+
+    /**
+     * Returns the first byte position of a "bytes first-last/length" Content-Range, or -1
+     * when the header is missing or malformed.
      */
-    public static void downloadFile(String imageUrl, String filepath) throws IOException {
+    private static long rangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
         try {
-            URI uri = new URI(imageUrl);
-            try (InputStream in = uri.toURL().openStream();
-                 FileOutputStream out = new FileOutputStream(filepath)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
+            return dash > 0 ? Long.parseLong(contentRange.substring("bytes ".length(), dash).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the validator a resumed request can send as If-Range: a strong ETag, else
+     * Last-Modified, else null, in which case the download is not resumed.
+     */
+    private static String resumeValidator(Response response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    /**
+     * Feeds the first length bytes of a file into the digest.
+     */
+    private static void updateDigest(MessageDigest digest, Path file, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_BYTES);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file: " + file);
                 }
+                digest.update(buffer.array(), 0, read);
+                remaining -= read;
             }
-        } catch (URISyntaxException e) {
-            throw new IOException("Invalid URL: " + imageUrl, e);
+        }
+    }
+
+    /**
+     * Readable channel that feeds every byte read from the wrapped channel into a digest.
+     */
+    private static final class DigestChannel implements ReadableByteChannel {
+
+        private final ReadableByteChannel source;
+        private final MessageDigest digest;
+
+        DigestChannel(ReadableByteChannel source, MessageDigest digest) {
+            this.source = source;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int start = dst.position();
+            int read = source.read(dst);
+            if (read > 0) {
+                ByteBuffer received = dst.duplicate();
+                received.position(start).limit(start + read);
+                digest.update(received);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return source.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Renames a completed temporary file to its final name, atomically when supported.
+     */
+    public static void moveIntoPlace(Path partPath, Path target) throws IOException {
+        try {
+            Files.move(partPath, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partPath, target, StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
@@ -84,17 +345,40 @@ public class FileManager {
     }
 
     /**
-     * Lists all image files in the directory (excluding .json files).
+     * Lists all images in the directory as paths relative to it, in either layout
+     * (excluding metadata, catalog, index and .part files).
+     *
+     * @see ImageLayout#images()
      */
     public static java.util.List<String> listImages(String imagesDir) throws IOException {
-        Path dirPath = Paths.get(imagesDir);
-        if (!Files.exists(dirPath)) {
-            return java.util.Collections.emptyList();
-        }
-        return Files.list(dirPath)
-                .filter(p -> !p.getFileName().toString().endsWith(".json"))
-                .map(p -> p.getFileName().toString())
-                .sorted()
-                .toList();
+        try (java.util.stream.Stream<String> images = streamImages(imagesDir)) {
+            return images.toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Streams the images of the directory lazily, one yyyy/MM shard at a time.
+     */
+    public static java.util.stream.Stream<String> streamImages(String imagesDir) {
+        return ImageLayout.forDirectory(imagesDir).images();
+    }
+
+    /**
+     * Whether a file in the images directory is an image rather than bookkeeping
+     * (metadata, catalog, index, temporary or partial files).
+     */
+    public static boolean isImageFilename(String filename) {
+        return !isMetadataOrTempFile(filename);
+    }
+
+    private static boolean isMetadataOrTempFile(String filename) {
+        return filename.startsWith(".") || filename.contains("/.")
+                || filename.endsWith(".json")
+                || filename.endsWith(".ndjson")
+                || filename.endsWith(".idx")
+                || filename.endsWith(".tmp")
+                || filename.endsWith(PART_SUFFIX);
     }
 }
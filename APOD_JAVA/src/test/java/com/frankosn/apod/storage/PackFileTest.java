@@ -0,0 +1,196 @@
+package com.frankosn.apod.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PackFileTest {
+
+    // On-disk format, as documented in PackFile
+    private static final int MAGIC = 0x4150414B;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripKeepsMembersInOrder() throws IOException {
+        byte[] image = randomBytes(200_000, 1);
+        byte[] sidecar = "{\"date\":\"2019-05-01\"}".getBytes(StandardCharsets.UTF_8);
+        Path path = dir.resolve("2019.pack");
+        PackFile.write(path, List.of(
+                member("2019/05/a.jpg", 1_000L, image),
+                member("2019/05/a.json", 2_000L, sidecar),
+                member("empty.jpg", 3_000L, new byte[0])));
+
+        PackFile pack = PackFile.open(path);
+        List<PackFile.Entry> entries = pack.entries();
+        assertEquals(List.of("2019/05/a.jpg", "2019/05/a.json", "empty.jpg"),
+                entries.stream().map(PackFile.Entry::name).toList());
+
+        PackFile.Entry first = pack.get("2019/05/a.jpg");
+        assertEquals(HEADER_BYTES, first.offset());
+        assertEquals(image.length, first.length());
+        assertEquals(1_000L, first.modified());
+        assertEquals(crc(image), first.crc());
+        assertEquals(first.offset() + first.length(), pack.get("2019/05/a.json").offset());
+        assertEquals(0, pack.get("empty.jpg").length());
+
+        assertArrayEquals(image, bytes(pack.read(first)));
+        assertArrayEquals(sidecar, PackFile.inputStream(pack.read(pack.get("2019/05/a.json"))).readAllBytes());
+        assertArrayEquals(new byte[0], bytes(pack.read(pack.get("empty.jpg"))));
+        for (PackFile.Entry entry : entries) {
+            assertTrue(pack.verify(entry), entry.name());
+        }
+        assertNull(pack.get("missing.jpg"));
+    }
+
+    @Test
+    void readReturnsIndependentReadOnlyViews() throws IOException {
+        Path path = dir.resolve("2019.pack");
+        PackFile.write(path, List.of(member("a.jpg", 0, randomBytes(1_000, 2))));
+        PackFile pack = PackFile.open(path);
+        PackFile.Entry entry = pack.get("a.jpg");
+
+        ByteBuffer view = pack.read(entry);
+        assertTrue(view.isReadOnly());
+        view.position(500);
+        assertEquals(1_000, pack.read(entry).remaining());
+
+        InputStream in = PackFile.inputStream(view);
+        assertEquals(500, in.skip(500));
+        assertEquals(-1, in.read());
+        assertEquals(500, view.position());
+    }
+
+    @Test
+    void verifyDetectsCorruptedMember() throws IOException {
+        Path path = dir.resolve("2019.pack");
+        PackFile.write(path, List.of(
+                member("a.jpg", 0, randomBytes(10_000, 3)),
+                member("b.jpg", 0, randomBytes(10_000, 4))));
+        long offset = PackFile.open(path).get("b.jpg").offset();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, offset + 42);
+            one.put(0, (byte) ~one.get(0));
+            channel.write(one.flip(), offset + 42);
+        }
+
+        PackFile pack = PackFile.open(path);
+        assertTrue(pack.verify(pack.get("a.jpg")));
+        assertFalse(pack.verify(pack.get("b.jpg")));
+    }
+
+    @Test
+    void openRejectsTruncatedPack() throws IOException {
+        Path path = dir.resolve("2019.pack");
+        PackFile.write(path, List.of(member("a.jpg", 0, randomBytes(1_000, 5))));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        assertThrows(IOException.class, () -> PackFile.open(path));
+    }
+
+    @Test
+    void openRejectsOtherFiles() throws IOException {
+        Path tiny = Files.write(dir.resolve("tiny.pack"), new byte[4]);
+        Path jpeg = Files.write(dir.resolve("jpeg.pack"), randomBytes(4_096, 6));
+
+        assertThrows(IOException.class, () -> PackFile.open(tiny));
+        assertThrows(IOException.class, () -> PackFile.open(jpeg));
+    }
+
+    @Test
+    void openRejectsIndexPointingPastTheMembers() throws IOException {
+        Path path = dir.resolve("2019.pack");
+        writeRawPack(path, HEADER_BYTES + 10, "a.jpg", HEADER_BYTES, 11, new byte[10]);
+
+        assertThrows(IOException.class, () -> PackFile.open(path));
+    }
+
+    @Test
+    void membersBeyondTwoGigabytesAreMappedOneByOne() throws IOException {
+        // A sparse file: the member sits past the 2 GB limit of a single mapping
+        long offset = 3L * 1024 * 1024 * 1024;
+        byte[] content = randomBytes(64 * 1024, 7);
+        Path path = dir.resolve("big.pack");
+        writeRawPack(path, offset + content.length, "far.jpg", offset, content.length, content);
+
+        PackFile pack = PackFile.open(path);
+        PackFile.Entry entry = pack.get("far.jpg");
+        assertEquals(offset, entry.offset());
+        assertArrayEquals(content, bytes(pack.read(entry)));
+        assertTrue(pack.verify(entry));
+    }
+
+    /**
+     * Writes a pack by hand: the header, one member at the given offset (with a sparse gap
+     * before it), an index entry claiming the given length, and the trailer.
+     */
+    private static void writeRawPack(Path path, long indexOffset, String name, long offset, long length,
+                                     byte[] content) throws IOException {
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(index)) {
+            out.writeInt(1);
+            out.writeUTF(name);
+            out.writeLong(offset);
+            out.writeLong(length);
+            out.writeLong(0);
+            out.writeInt(crc(content));
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip(), 0);
+            channel.write(ByteBuffer.wrap(content), offset);
+            channel.write(ByteBuffer.wrap(index.toByteArray()), indexOffset);
+        }
+    }
+
+    private static PackFile.Member member(String name, long modified, byte[] content) {
+        return new PackFile.Member(name, modified, () -> new ByteArrayInputStream(content));
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,57 @@
+package com.frankosn.apod.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PackStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void findsMembersAcrossYearsWithOlderYearsWinning() throws IOException {
+        PackStore store = PackStore.forDirectory(dir.toString());
+        Files.createDirectories(store.packPath(2018).getParent());
+        PackFile.write(store.packPath(2018), List.of(member("a.jpg", "2018"), member("shared.jpg", "2018")));
+        PackFile.write(store.packPath(2019), List.of(member("b.jpg", "2019"), member("shared.jpg", "2019")));
+        store.reload();
+
+        assertEquals(store.packPath(2019), store.find("b.jpg").pack().getPath());
+        assertEquals(store.packPath(2018), store.find("shared.jpg").pack().getPath());
+        assertEquals(List.of("a.jpg", "shared.jpg", "b.jpg"), store.images().toList());
+        assertNull(store.find("c.jpg"));
+    }
+
+    @Test
+    void reloadPicksUpRewrittenPack() throws IOException {
+        PackStore store = PackStore.forDirectory(dir.toString());
+        Files.createDirectories(store.packPath(2019).getParent());
+        PackFile.write(store.packPath(2019), List.of(member("a.jpg", "first")));
+        store.reload();
+        assertNull(store.get("b.jpg"));
+
+        PackFile.write(store.packPath(2019), List.of(member("a.jpg", "first"), member("b.jpg", "second")));
+        store.reload();
+
+        PackStore.Located located = store.get("b.jpg");
+        assertNotNull(located);
+        assertEquals("second", new String(PackFile.inputStream(located.pack().read(located.entry())).readAllBytes(),
+                StandardCharsets.UTF_8));
+    }
+
+    private static PackFile.Member member(String name, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return new PackFile.Member(name, 0, () -> new ByteArrayInputStream(bytes));
+    }
+}